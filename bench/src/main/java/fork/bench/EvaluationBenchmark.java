@@ -0,0 +1,43 @@
+package fork.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import fork.engine.Evaluation;
+import fork.engine.PawnTable;
+import fork.engine.Position;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark
+{
+    @Param({
+        Position.START_FEN,
+        Position.KIWIPETE_FEN,
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "8/5k2/8/3R4/8/8/3r1PK1/8 w - - 0 1",
+        "8/8/4k3/8/2p5/8/B2K4/8 w - - 0 1",
+        "8/k7/3p4/p2P1p2/P2P1P2/8/8/K7 w - - 0 1",
+    })
+    public String fen;
+
+    private Position pos;
+    private final PawnTable pawnTable = new PawnTable();
+
+    @Setup
+    public void setup()
+    {
+        pos = new Position(fen);
+    }
+
+    @Benchmark
+    public int evaluate()
+    {
+        return Evaluation.evaluate(pos, pawnTable);
+    }
+}
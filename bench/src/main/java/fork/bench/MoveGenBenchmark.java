@@ -0,0 +1,83 @@
+package fork.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import fork.engine.MoveGen;
+import fork.engine.MoveList;
+import fork.engine.Position;
+
+// Measures move generation, making and unmaking moves, and attack detection
+// on each of the benchmark positions.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenBenchmark
+{
+    @Param({
+        Position.START_FEN,
+        Position.KIWIPETE_FEN,
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "8/5k2/8/3R4/8/8/3r1PK1/8 w - - 0 1",
+        "8/8/4k3/8/2p5/8/B2K4/8 w - - 0 1",
+        "8/k7/3p4/p2P1p2/P2P1P2/8/8/K7 w - - 0 1",
+    })
+    public String fen;
+
+    private Position pos;
+    private MoveList moves;
+    private final MoveList scratch = new MoveList();
+
+    @Setup
+    public void setup()
+    {
+        pos = new Position(fen);
+        moves = MoveGen.genAllMoves(pos);
+    }
+
+    @Benchmark
+    public int genAllMoves()
+    {
+        MoveGen.genAllMoves(pos, scratch);
+        return scratch.count;
+    }
+
+    @Benchmark
+    public MoveList genAllMovesAllocating()
+    {
+        return MoveGen.genAllMoves(pos);
+    }
+
+    // Make and take back every legal move in the position.
+    @Benchmark
+    public long makeUnmakeMoves()
+    {
+        long acc = 0L;
+        for (int i = 0; i < moves.count; i++)
+        {
+            int move = moves.moves[i];
+            pos.makeMove(move);
+            acc ^= pos.hash;
+            pos.unmakeMove(move);
+        }
+        return acc;
+    }
+
+    // Ask whether each square is attacked by the side not to move.
+    @Benchmark
+    @OperationsPerInvocation(64)
+    public int sqIsAttacked()
+    {
+        int count = 0;
+        for (byte sq = 0; sq < 64; sq++)
+        {
+            if (MoveGen.sqIsAttacked(pos, pos.stm, sq))
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,56 @@
+package fork.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import fork.engine.MoveGen;
+import fork.engine.PRNG;
+
+// Measures the magic bitboard lookups for the sliding pieces over a fixed
+// set of random occupancies, so every square and a spread of blocker
+// patterns are hit.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SliderBenchmark
+{
+    private static final int NUM_SAMPLES = 1024;
+
+    private final byte[] squares = new byte[NUM_SAMPLES];
+    private final long[] blockers = new long[NUM_SAMPLES];
+
+    @Setup
+    public void setup()
+    {
+        PRNG prng = new PRNG(0x5eed5eed5eedL);
+        for (int i = 0; i < NUM_SAMPLES; i++)
+        {
+            squares[i] = (byte)(i & 63);
+            blockers[i] = prng.randomLong() & prng.randomLong();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_SAMPLES)
+    public long rookMoves()
+    {
+        long acc = 0L;
+        for (int i = 0; i < NUM_SAMPLES; i++)
+            acc ^= MoveGen.genRookMovesBB(squares[i], blockers[i]);
+        return acc;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_SAMPLES)
+    public long bishopMoves()
+    {
+        long acc = 0L;
+        for (int i = 0; i < NUM_SAMPLES; i++)
+            acc ^= MoveGen.genBishopMovesBB(squares[i], blockers[i]);
+        return acc;
+    }
+}
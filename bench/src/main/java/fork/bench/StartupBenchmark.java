@@ -0,0 +1,27 @@
+package fork.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import fork.engine.MoveGen;
+import fork.engine.Position;
+
+// Measures how long a fresh JVM takes to get the engine ready to search:
+// every run is a single call in a new fork, so it pays for initializing the
+// lookup tables, magic bitboards, and Zobrist keys exactly once.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark
+{
+    @Benchmark
+    public int engineStartup()
+    {
+        Position pos = new Position(Position.START_FEN);
+        return MoveGen.genAllMoves(pos).count;
+    }
+}
@@ -0,0 +1,24 @@
+package fork.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class EvalCacheTest
+{
+    @Test
+    public void scoresOutOfRangeAreClampedNotWrapped()
+    {
+        EvalCache cache = new EvalCache();
+        long hash = 0x123456789abcdef0L;
+
+        cache.store(hash, 40000);
+        assertEquals(EvalCache.MAX_SCORE, cache.probe(hash));
+
+        cache.store(hash, -40000);
+        assertEquals(EvalCache.MIN_SCORE, cache.probe(hash));
+
+        cache.store(hash, -1234);
+        assertEquals(-1234, cache.probe(hash));
+    }
+}
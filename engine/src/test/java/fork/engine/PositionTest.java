@@ -0,0 +1,68 @@
+package fork.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class PositionTest
+{
+    @Test
+    public void halfmoveClockAboveByteRangeLoads()
+    {
+        Position pos = new Position();
+        pos.loadFEN("8/8/8/8/8/5k2/8/Q3K3 w - - 140 200");
+        assertEquals(140, pos.rule50);
+        assertTrue(pos.isDraw());
+    }
+
+    @Test
+    public void checkmateTakesPrecedenceOverFiftyMoveRule()
+    {
+        Position pos = new Position();
+        pos.loadFEN("k7/1Q6/1K6/8/8/8/8/8 b - - 100 120");
+        assertFalse(pos.isDraw());
+
+        // In check, but with a way out.
+        pos.loadFEN("k7/8/1K6/8/8/8/8/7Q b - - 100 120");
+        assertTrue(pos.isDraw());
+    }
+
+    private static void play(Position pos, String... moves)
+    {
+        for (String move : moves)
+        {
+            pos.makeMove(Move.moveFromCoord(pos, move));
+            pos.discardUnreachableHistory();
+        }
+    }
+
+    private static void shuffleKnights(Position pos, int cycles)
+    {
+        for (int i = 0; i < cycles; i++)
+            play(pos, "g1f3", "g8f6", "f3g1", "f6g8");
+    }
+
+    @Test
+    public void longGameHistoryIsTrimmedAtIrreversibleMoves()
+    {
+        Position pos = new Position(Position.START_FEN);
+        shuffleKnights(pos, 500);
+        play(pos, "e2e4", "e7e5");
+        shuffleKnights(pos, 500);
+        play(pos, "d2d3", "d7d6");
+
+        assertFalse(pos.isDraw());
+        play(pos, "g1f3", "g8f6", "f3g1", "f6g8");
+        assertTrue(pos.isDraw());
+    }
+
+    @Test
+    public void fullHistoryFailsClearly()
+    {
+        Position pos = new Position(Position.START_FEN);
+        assertThrows(IllegalStateException.class, () -> shuffleKnights(pos, Position.MAX_HISTORY));
+    }
+}
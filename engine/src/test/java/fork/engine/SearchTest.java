@@ -0,0 +1,58 @@
+package fork.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.jupiter.api.Test;
+
+public class SearchTest
+{
+    // Search the given position to the given depth, and return the move it
+    // reports.
+    private static String searchBestMove(Search search, String fen, int depth)
+    {
+        search.pos.loadFEN(fen);
+        search.timer.setup(Timer.INFINITE_TIME, Timer.NO_VALUE, Timer.NO_VALUE, Long.MAX_VALUE, depth, Timer.NO_VALUE);
+        search.timer.start();
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+
+        try
+        {
+            search.search();
+        }
+        finally
+        {
+            System.setOut(stdout);
+        }
+
+        String bestMove = "";
+        for (String line : output.toString().split("\\R"))
+        {
+            if (line.startsWith("bestmove"))
+                bestMove = line.split("\\s+")[1];
+        }
+        return bestMove;
+    }
+
+    @Test
+    public void stalemateAfterNormalSearchReportsNullMove()
+    {
+        Search search = new Search();
+        assertNotEquals("0000", searchBestMove(search, Position.START_FEN, 4));
+        assertEquals("0000", searchBestMove(search, "k7/8/1Q6/8/8/8/8/K7 b - - 0 1", 3));
+    }
+
+    @Test
+    public void checkmateAfterNormalSearchReportsNullMove()
+    {
+        Search search = new Search();
+        assertNotEquals("0000", searchBestMove(search, Position.START_FEN, 4));
+        assertEquals("0000", searchBestMove(search, "k7/1Q6/1K6/8/8/8/8/8 b - - 0 1", 3));
+    }
+}
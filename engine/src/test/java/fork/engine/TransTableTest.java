@@ -0,0 +1,56 @@
+package fork.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TransTableTest
+{
+    private static final long HASH = 0x0fedcba987654321L;
+    private static final int MOVE = Move.makeMove((byte)12, (byte)28, Move.QUIET, Move.NO_FLAG);
+
+    @Test
+    public void shallowBoundDoesNotReplaceDeeperEntry()
+    {
+        TransTable tt = new TransTable(TransTable.MIN_SIZE_MB);
+        tt.newSearch();
+
+        tt.store(HASH, MOVE, 50, 8, TransTable.LOWER_BOUND);
+        tt.store(HASH, Move.NULL_MOVE, -20, 0, TransTable.UPPER_BOUND);
+
+        long entry = tt.probe(HASH);
+        assertEquals(8, TransTable.getDepth(entry));
+        assertEquals(50, TransTable.getScore(entry));
+        assertEquals(TransTable.LOWER_BOUND, TransTable.getBound(entry));
+    }
+
+    @Test
+    public void exactScoreReplacesDeeperBound()
+    {
+        TransTable tt = new TransTable(TransTable.MIN_SIZE_MB);
+        tt.newSearch();
+
+        tt.store(HASH, MOVE, 50, 8, TransTable.LOWER_BOUND);
+        tt.store(HASH, Move.NULL_MOVE, 30, 4, TransTable.EXACT_BOUND);
+
+        long entry = tt.probe(HASH);
+        assertEquals(4, TransTable.getDepth(entry));
+        assertEquals(TransTable.EXACT_BOUND, TransTable.getBound(entry));
+        assertEquals(MOVE, TransTable.getMove(entry));
+    }
+
+    @Test
+    public void entriesFromEarlierSearchesAreReplaced()
+    {
+        TransTable tt = new TransTable(TransTable.MIN_SIZE_MB);
+        tt.newSearch();
+        tt.store(HASH, MOVE, 50, 8, TransTable.LOWER_BOUND);
+
+        tt.newSearch();
+        tt.store(HASH, Move.NULL_MOVE, -20, 2, TransTable.UPPER_BOUND);
+
+        long entry = tt.probe(HASH);
+        assertEquals(2, TransTable.getDepth(entry));
+        assertEquals(TransTable.UPPER_BOUND, TransTable.getBound(entry));
+    }
+}
@@ -0,0 +1,61 @@
+package fork.engine;
+
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+public class UCITest
+{
+    // Feed the given commands to a fresh engine, and return everything it
+    // printed.
+    private static String runCommands(String commands)
+    {
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        System.setIn(new ByteArrayInputStream(commands.getBytes()));
+        System.setOut(new PrintStream(output, true));
+
+        try
+        {
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> new UCI().loop());
+        }
+        finally
+        {
+            System.setIn(stdin);
+            System.setOut(stdout);
+        }
+        return output.toString();
+    }
+
+    // A stop sent straight after go can arrive before the search thread has
+    // even started, and must still end the search. The race is timing
+    // dependent, so it's run a few times.
+    @Test
+    public void stopRightAfterGoReportsBestMove()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            String output = runCommands("position startpos\ngo infinite\nstop\nquit\n");
+            assertTrue(output.contains("bestmove"), "no bestmove after go infinite and stop");
+        }
+    }
+
+    @Test
+    public void stopRightAfterGoPonderReportsBestMove()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            String output = runCommands("position startpos\ngo ponder wtime 1000 btime 1000\nstop\nquit\n");
+            assertTrue(output.contains("bestmove"), "no bestmove after go ponder and stop");
+        }
+    }
+}
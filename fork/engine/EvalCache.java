@@ -0,0 +1,45 @@
+package fork.engine;
+
+import java.util.Arrays;
+
+// A fixed-size cache of static evaluations, keyed by the Zobrist hash of the
+// position, so positions reached again through a different move order, which
+// is common in quiescence search, aren't evaluated twice.
+//
+// Like the transposition table, it's shared by every search thread without
+// locking. Each slot is a single long holding the upper 48 bits of the hash
+// and the 16 bit score, so an entry is always written and read as a whole,
+// and the stored hash bits verify it belongs to the position probed.
+public class EvalCache
+{
+    public static final int NO_SCORE = Integer.MIN_VALUE;
+
+    // The range of scores that fit in an entry's 16 bits. Scores outside it
+    // are clamped rather than left to wrap around.
+    public static final int MIN_SCORE = Short.MIN_VALUE + 1;
+    public static final int MAX_SCORE = Short.MAX_VALUE;
+
+    private static final int NUM_ENTRIES = 1 << 18;
+    private static final long KEY_MASK   = 0xffffffffffff0000L;
+
+    private final long[] entries = new long[NUM_ENTRIES];
+
+    public void clear()
+    {
+        Arrays.fill(entries, 0L);
+    }
+
+    public int probe(long hash)
+    {
+        long entry = entries[(int)(hash & (NUM_ENTRIES - 1))];
+        if (((entry ^ hash) & KEY_MASK) != 0 || entry == 0L)
+            return NO_SCORE;
+        return (short)(entry & 0xffff);
+    }
+
+    public void store(long hash, int score)
+    {
+        score = Math.max(MIN_SCORE, Math.min(MAX_SCORE, score));
+        entries[(int)(hash & (NUM_ENTRIES - 1))] = (hash & KEY_MASK) | (score & 0xffff);
+    }
+}
@@ -1,6 +1,6 @@
 package fork.engine;
 
-public class Evaluation 
+public class Evaluation
 {
     public static final int PAWN_VALUE   = 100;
     public static final int KNIGHT_VALUE = 300;
@@ -8,24 +8,295 @@ public class Evaluation
     public static final int ROOK_VALUE   = 500;
     public static final int QUEEN_VALUE  = 950;
 
-    public static int evaluate(Position pos) 
+    // How much each piece type counts towards the game phase. With every piece
+    // on the board the phase is TOTAL_PHASE, and it falls to zero as pieces
+    // are traded off, so the evaluation slides from the middlegame scores to
+    // the endgame scores.
+    public static final int[] PHASE_VALUES = {0, 0, 1, 1, 2, 4, 0};
+    public static final int TOTAL_PHASE    = 24;
+
+    // Pawn structure terms, indexed by the pawn's rank counted from its own
+    // side of the board where they depend on it.
+    private static final int DOUBLED_PAWN_MG   = -10, DOUBLED_PAWN_EG   = -20;
+    private static final int ISOLATED_PAWN_MG  = -10, ISOLATED_PAWN_EG  = -15;
+    private static final int BACKWARD_PAWN_MG  = -8,  BACKWARD_PAWN_EG  = -10;
+
+    private static final int[] PASSED_PAWN_MG  = {0, 5, 10, 15, 25, 45, 70, 0};
+    private static final int[] PASSED_PAWN_EG  = {0, 10, 20, 35, 60, 100, 150, 0};
+    private static final int[] FREE_PASSER_EG  = {0, 0, 5, 10, 20, 35, 60, 0};
+
+    public static final int[] MG_PIECE_VALUES = {0, 82, 337, 365, 477, 1025, 0};
+    public static final int[] EG_PIECE_VALUES = {0, 94, 281, 297, 512,  936, 0};
+
+    // Piece-square tables from white's perspective, written with the eighth
+    // rank first so they read like a board.
+    private static final int[][] MG_PST = {
+        {},
+        // Pawn
+        {
+              0,   0,   0,   0,   0,   0,   0,   0,
+             98, 134,  61,  95,  68, 126,  34, -11,
+             -6,   7,  26,  31,  65,  56,  25, -20,
+            -14,  13,   6,  21,  23,  12,  17, -23,
+            -27,  -2,  -5,  12,  17,   6,  10, -25,
+            -26,  -4,  -4, -10,   3,   3,  33, -12,
+            -35,  -1, -20, -23, -15,  24,  38, -22,
+              0,   0,   0,   0,   0,   0,   0,   0,
+        },
+        // Knight
+        {
+            -167, -89, -34, -49,  61, -97, -15, -107,
+             -73, -41,  72,  36,  23,  62,   7,  -17,
+             -47,  60,  37,  65,  84, 129,  73,   44,
+              -9,  17,  19,  53,  37,  69,  18,   22,
+             -13,   4,  16,  13,  28,  19,  21,   -8,
+             -23,  -9,  12,  10,  19,  17,  25,  -16,
+             -29, -53, -12,  -3,  -1,  18, -14,  -19,
+            -105, -21, -58, -33, -17, -28, -19,  -23,
+        },
+        // Bishop
+        {
+            -29,   4, -82, -37, -25, -42,   7,  -8,
+            -26,  16, -18, -13,  30,  59,  18, -47,
+            -16,  37,  43,  40,  35,  50,  37,  -2,
+             -4,   5,  19,  50,  37,  37,   7,  -2,
+             -6,  13,  13,  26,  34,  12,  10,   4,
+              0,  15,  15,  15,  14,  27,  18,  10,
+              4,  15,  16,   0,   7,  21,  33,   1,
+            -33,  -3, -14, -21, -13, -12, -39, -21,
+        },
+        // Rook
+        {
+             32,  42,  32,  51,  63,   9,  31,  43,
+             27,  32,  58,  62,  80,  67,  26,  44,
+             -5,  19,  26,  36,  17,  45,  61,  16,
+            -24, -11,   7,  26,  24,  35,  -8, -20,
+            -36, -26, -12,  -1,   9,  -7,   6, -23,
+            -45, -25, -16, -17,   3,   0,  -5, -33,
+            -44, -16, -20,  -9,  -1,  11,  -6, -71,
+            -19, -13,   1,  17,  16,   7, -37, -26,
+        },
+        // Queen
+        {
+            -28,   0,  29,  12,  59,  44,  43,  45,
+            -24, -39,  -5,   1, -16,  57,  28,  54,
+            -13, -17,   7,   8,  29,  56,  47,  57,
+            -27, -27, -16, -16,  -1,  17,  -2,   1,
+             -9, -26,  -9, -10,  -2,  -4,   3,  -3,
+            -14,   2, -11,  -2,  -5,   2,  14,   5,
+            -35,  -8,  11,   2,   8,  15,  -3,   1,
+             -1, -18,  -9,  10, -15, -25, -31, -50,
+        },
+        // King
+        {
+            -65,  23,  16, -15, -56, -34,   2,  13,
+             29,  -1, -20,  -7,  -8,  -4, -38, -29,
+             -9,  24,   2, -16, -20,   6,  22, -22,
+            -17, -20, -12, -27, -30, -25, -14, -36,
+            -49,  -1, -27, -39, -46, -44, -33, -51,
+            -14, -14, -22, -46, -44, -30, -15, -27,
+              1,   7,  -8, -64, -43, -16,   9,   8,
+            -15,  36,  12, -54,   8, -28,  24,  14,
+        },
+    };
+
+    private static final int[][] EG_PST = {
+        {},
+        // Pawn
+        {
+              0,   0,   0,   0,   0,   0,   0,   0,
+            178, 173, 158, 134, 147, 132, 165, 187,
+             94, 100,  85,  67,  56,  53,  82,  84,
+             32,  24,  13,   5,  -2,   4,  17,  17,
+             13,   9,  -3,  -7,  -7,  -8,   3,  -1,
+              4,   7,  -6,   1,   0,  -5,  -1,  -8,
+             13,   8,   8,  10,  13,   0,   2,  -7,
+              0,   0,   0,   0,   0,   0,   0,   0,
+        },
+        // Knight
+        {
+            -58, -38, -13, -28, -31, -27, -63, -99,
+            -25,  -8, -25,  -2,  -9, -25, -24, -52,
+            -24, -20,  10,   9,  -1,  -9, -19, -41,
+            -17,   3,  22,  22,  22,  11,   8, -18,
+            -18,  -6,  16,  25,  16,  17,   4, -18,
+            -23,  -3,  -1,  15,  10,  -3, -20, -22,
+            -42, -20, -10,  -5,  -2, -20, -23, -44,
+            -29, -51, -23, -15, -22, -18, -50, -64,
+        },
+        // Bishop
+        {
+            -14, -21, -11,  -8,  -7,  -9, -17, -24,
+             -8,  -4,   7, -12,  -3, -13,  -4, -14,
+              2,  -8,   0,  -1,  -2,   6,   0,   4,
+             -3,   9,  12,   9,  14,  10,   3,   2,
+             -6,   3,  13,  19,   7,  10,  -3,  -9,
+            -12,  -3,   8,  10,  13,   3,  -7, -15,
+            -14, -18,  -7,  -1,   4,  -9, -15, -27,
+            -23,  -9, -23,  -5,  -9, -16,  -5, -17,
+        },
+        // Rook
+        {
+             13,  10,  18,  15,  12,  12,   8,   5,
+             11,  13,  13,  11,  -3,   3,   8,   3,
+              7,   7,   7,   5,   4,  -3,  -5,  -3,
+              4,   3,  13,   1,   2,   1,  -1,   2,
+              3,   5,   8,   4,  -5,  -6,  -8, -11,
+             -4,   0,  -5,  -1,  -7, -12,  -8, -16,
+             -6,  -6,   0,   2,  -9,  -9, -11,  -3,
+             -9,   2,   3,  -1,  -5, -13,   4, -20,
+        },
+        // Queen
+        {
+             -9,  22,  22,  27,  27,  19,  10,  20,
+            -17,  20,  32,  41,  58,  25,  30,   0,
+            -20,   6,   9,  49,  47,  35,  19,   9,
+              3,  22,  24,  45,  57,  40,  57,  36,
+            -18,  28,  19,  47,  31,  34,  39,  23,
+            -16, -27,  15,   6,   9,  17,  10,   5,
+            -22, -23, -30, -16, -16, -23, -36, -32,
+            -33, -28, -22, -43,  -5, -32, -20, -41,
+        },
+        // King
+        {
+            -74, -35, -18, -18, -11,  15,   4, -17,
+            -12,  17,  14,  17,  17,  38,  23,  11,
+             10,  17,  23,  15,  20,  45,  44,  13,
+             -8,  22,  24,  27,  26,  33,  26,   3,
+            -18,  -4,  21,  24,  27,  23,   9, -11,
+            -19,  -3,  11,  21,  23,  16,   7,  -9,
+            -27, -11,   4,  13,  14,   4,  -5, -17,
+            -53, -34, -21, -11, -28, -14, -24, -43,
+        },
+    };
+
+    // The material and piece-square score of a piece on a square, from white's
+    // point of view, indexed by color, piece type, and square. Position keeps a
+    // running sum of these as pieces are put on and taken off the board.
+    public static final int[][][] MG_SCORES = new int[3][7][64];
+    public static final int[][][] EG_SCORES = new int[3][7][64];
+
+    static
+    {
+        for (byte pieceType = Position.PAWN; pieceType <= Position.KING; pieceType++)
+        {
+            for (int sq = 0; sq < 64; sq++)
+            {
+                // The tables start on a8, so a white piece's square is flipped
+                // vertically to find its entry, and a black piece's isn't.
+                int whiteIndex = sq ^ 56, blackIndex = sq;
+
+                MG_SCORES[Position.WHITE][pieceType][sq] = MG_PIECE_VALUES[pieceType] + MG_PST[pieceType][whiteIndex];
+                EG_SCORES[Position.WHITE][pieceType][sq] = EG_PIECE_VALUES[pieceType] + EG_PST[pieceType][whiteIndex];
+                MG_SCORES[Position.BLACK][pieceType][sq] = -(MG_PIECE_VALUES[pieceType] + MG_PST[pieceType][blackIndex]);
+                EG_SCORES[Position.BLACK][pieceType][sq] = -(EG_PIECE_VALUES[pieceType] + EG_PST[pieceType][blackIndex]);
+            }
+        }
+    }
+
+    public static int evaluate(Position pos, PawnTable pawnTable)
+    {
+        if (pos.accumulator != null)
+            return pos.accumulator.evaluate(pos.stm);
+
+        int index = pawnTable.probe(pos.pawnHash);
+        if (index == PawnTable.NO_ENTRY)
+            index = evaluatePawns(pos, pawnTable);
+
+        int mgScore = pos.mgScore + pawnTable.getMgScore(index);
+        int egScore = pos.egScore + pawnTable.getEgScore(index);
+
+        // Whether a passed pawn's path is blocked depends on the other pieces,
+        // so it can't be cached with the rest of the pawn structure.
+        long passedPawns = pawnTable.getPassedPawns(index);
+        long occupied = pos.sides[Position.WHITE] | pos.sides[Position.BLACK];
+
+        while (passedPawns != 0)
+        {
+            byte sq = Bitboard.findMSBPos(passedPawns);
+            passedPawns = Bitboard.clearBit(passedPawns, sq);
+
+            byte color = pos.getPieceColor(sq);
+            long stopSqBB = Tables.PAWN_PUSHES[color][sq];
+
+            if ((stopSqBB & occupied) == 0)
+            {
+                int bonus = FREE_PASSER_EG[relativeRank(color, sq)];
+                egScore += color == Position.WHITE ? bonus : -bonus;
+            }
+        }
+
+        int phase = Math.min(pos.phase, TOTAL_PHASE);
+        int score = (mgScore * phase + egScore * (TOTAL_PHASE - phase)) / TOTAL_PHASE;
+
+        return pos.stm == Position.WHITE ? score : -score;
+    }
+
+    // Score the doubled, isolated, backward, and passed pawns of both sides
+    // from white's point of view, and store the result in the pawn table.
+    private static int evaluatePawns(Position pos, PawnTable pawnTable)
+    {
+        int mgScore = 0, egScore = 0;
+        long passed = 0L;
+
+        for (byte color = Position.WHITE; color <= Position.BLACK; color++)
+        {
+            long usPawns = pos.pieces[Position.PAWN] & pos.sides[color];
+            long enemyPawns = pos.pieces[Position.PAWN] & pos.sides[Position.flipColor(color)];
+            int sign = color == Position.WHITE ? 1 : -1;
+            long pawns = usPawns;
+
+            while (pawns != 0)
+            {
+                byte sq = Bitboard.findMSBPos(pawns);
+                pawns = Bitboard.clearBit(pawns, sq);
+
+                int file = Square.fileOf(sq);
+                long forwardFile = Tables.PASSED_PAWN_MASKS[color][sq] & Tables.MASK_FILE[file];
+                int pawnMg = 0, pawnEg = 0;
+
+                // Only the rear pawn of a doubled pair is penalized.
+                if ((forwardFile & usPawns) != 0)
+                {
+                    pawnMg += DOUBLED_PAWN_MG;
+                    pawnEg += DOUBLED_PAWN_EG;
+                }
+
+                if ((Tables.ADJACENT_FILES[file] & usPawns) == 0)
+                {
+                    pawnMg += ISOLATED_PAWN_MG;
+                    pawnEg += ISOLATED_PAWN_EG;
+                }
+                else if ((Tables.PAWN_SUPPORT_MASKS[color][sq] & usPawns) == 0)
+                {
+                    // A pawn that has no pawns left to support it, and can't
+                    // advance without being taken by an enemy pawn, is backward.
+                    byte stopSq = Bitboard.findMSBPos(Tables.PAWN_PUSHES[color][sq]);
+                    if ((Tables.PAWN_ATTACKS[color][stopSq] & enemyPawns) != 0)
+                    {
+                        pawnMg += BACKWARD_PAWN_MG;
+                        pawnEg += BACKWARD_PAWN_EG;
+                    }
+                }
+
+                if ((Tables.PASSED_PAWN_MASKS[color][sq] & enemyPawns) == 0 && (forwardFile & usPawns) == 0)
+                {
+                    int rank = relativeRank(color, sq);
+                    pawnMg += PASSED_PAWN_MG[rank];
+                    pawnEg += PASSED_PAWN_EG[rank];
+                    passed = Bitboard.setBit(passed, sq);
+                }
+
+                mgScore += sign * pawnMg;
+                egScore += sign * pawnEg;
+            }
+        }
+
+        return pawnTable.store(pos.pawnHash, mgScore, egScore, passed);
+    }
+
+    private static int relativeRank(byte color, byte sq)
     {
-        int scores[] = new int[3];
-        byte usColor = pos.stm;
-        byte enemyColor = Position.flipColor(usColor);
-        
-        scores[usColor] += Long.bitCount((pos.pieces[Position.PAWN] & pos.sides[usColor])) * PAWN_VALUE;
-        scores[usColor] += Long.bitCount((pos.pieces[Position.KNIGHT] & pos.sides[usColor])) * KNIGHT_VALUE;
-        scores[usColor] += Long.bitCount((pos.pieces[Position.BISHOP] & pos.sides[usColor])) * BISHOP_VALUE;
-        scores[usColor] += Long.bitCount((pos.pieces[Position.ROOK] & pos.sides[usColor])) * ROOK_VALUE;
-        scores[usColor] += Long.bitCount((pos.pieces[Position.QUEEN] & pos.sides[usColor])) * QUEEN_VALUE;
-
-        scores[enemyColor] += Long.bitCount((pos.pieces[Position.PAWN] & pos.sides[enemyColor])) * PAWN_VALUE;
-        scores[enemyColor] += Long.bitCount((pos.pieces[Position.KNIGHT] & pos.sides[enemyColor])) * KNIGHT_VALUE;
-        scores[enemyColor] += Long.bitCount((pos.pieces[Position.BISHOP] & pos.sides[enemyColor])) * BISHOP_VALUE;
-        scores[enemyColor] += Long.bitCount((pos.pieces[Position.ROOK] & pos.sides[enemyColor])) * ROOK_VALUE;
-        scores[enemyColor] += Long.bitCount((pos.pieces[Position.QUEEN] & pos.sides[enemyColor])) * QUEEN_VALUE;
-
-        return scores[usColor] - scores[enemyColor];
+        return color == Position.WHITE ? Square.rankOf(sq) : 7 - Square.rankOf(sq);
     }
 }
@@ -4,6 +4,12 @@ public class Fork
 {
     public static void main(String[] args) 
     {
+        if (args.length > 0 && args[0].equals("bench"))
+        {
+            Bench.run(args.length > 1 ? Integer.parseInt(args[1]) : Bench.DEFAULT_DEPTH);
+            return;
+        }
+
         UCI uci = new UCI();
         uci.loop();
     }
@@ -1,12 +1,62 @@
 package fork.engine;
 
+// Fancy magic bitboards. The moves of every square for both rooks and bishops
+// are packed into one flat table, where each square's slice starts at its
+// offset and is only as large as the number of blocker subsets it has. The
+// magic number, blocker mask, and shift of each square are kept in parallel
+// primitive arrays, so a lookup touches no objects.
+//
+// The magic numbers themselves were found once by a brute force search over
+// sparse random numbers, and are kept here as constants, since searching for
+// them made up nearly all of the engine's startup time.
 public class Magic {
-    public static final MagicSqInfo[] ROOK_MAGICS;
-    public static final MagicSqInfo[] BISHOP_MAGICS;
-    public static final long[][] ROOK_MOVES;
-    public static final long[][] BISHOP_MOVES;
-
-    public static final long[] MAGIC_SEEDS = {728, 10316, 55013, 32803, 12281, 15100, 16645, 255};
+    public static final long[] ROOK_MAGICS = {
+        0x2220a09401006042L, 0x1022000403018802L, 0x2422006150081c02L, 0x400200102014081aL,
+        0x80020410010008a1L, 0x2008102003004009L, 0x0000839100214001L, 0x6101310024408005L,
+        0x0820018104004600L, 0x0804021048430400L, 0x0100020004008080L, 0x0904802402480080L,
+        0x1800900100982100L, 0x2028200082100080L, 0x0040028900412500L, 0x0000400080006080L,
+        0x0000042041820011L, 0x8002000804220011L, 0x000a000850020024L, 0x4202040008008080L,
+        0x8480120140220008L, 0x0010008020008052L, 0x4020006250004000L, 0x4c40004020808002L,
+        0x004c984082000b04L, 0x0000024814001021L, 0x0102011052000468L, 0x0105000801001004L,
+        0x8201089001002101L, 0x1012811000806000L, 0x0220100040400020L, 0x80814002a0800081L,
+        0x020040420000830cL, 0x80a1016400104208L, 0x8440020080800400L, 0x4008080080140080L,
+        0x4001300080080080L, 0x8120011010040200L, 0x1000842300400100L, 0x4000400080002085L,
+        0x0000020004004081L, 0x0800040001081290L, 0xb001010004001802L, 0x80000d0011000800L,
+        0x00044a0020120040L, 0x0142020040118020L, 0x0888808020014000L, 0x90402c8000804000L,
+        0x0829000042128300L, 0xa9cc00150a080410L, 0x4001002842440100L, 0x0002002052000488L,
+        0x0803001000204904L, 0x800c802002100880L, 0x4014804001842004L, 0x00408000e0400080L,
+        0x9080014080042100L, 0x0a00041122001188L, 0x41001281001c0008L, 0x2100030010080084L,
+        0x0080080004801000L, 0x0200181202204080L, 0x8040002000409004L, 0x0380004003b0a080L,
+    };
+
+    public static final long[] BISHOP_MAGICS = {
+        0x0040484802902044L, 0x0210401044110050L, 0x0010006020322084L, 0x001a4a0410021200L,
+        0x800080000c208800L, 0x0002810084008800L, 0x0080012608025800L, 0x0000220204a00800L,
+        0x0034840082020002L, 0x0040184123020024L, 0x403120041000800cL, 0x6800801810242401L,
+        0xa005020442088020L, 0x12000100a8040020L, 0x0382004108292000L, 0xc002080404040400L,
+        0x0550008100480101L, 0x00080a28020122c0L, 0x0504090045040200L, 0x0828140892000c00L,
+        0x0000041144000801L, 0x080c0c40c8011000L, 0x8004020242201020L, 0x8004020242201020L,
+        0x000c010220920198L, 0x0404032404014400L, 0x4801080200802200L, 0x8040038020020220L,
+        0x4040020080080080L, 0x0044020300081848L, 0x8004014c00600400L, 0x0041041381202000L,
+        0x4828504005040211L, 0x0010840101820880L, 0x0009420121c1101cL, 0x000900401c004049L,
+        0x4048080004820002L, 0x81004c0018080313L, 0x0010102858090121L, 0x0020640050100a00L,
+        0x0008403429080820L, 0x0001009610822080L, 0x0032400608200412L, 0x9004101202020240L,
+        0x1108000420401000L, 0x0114001244008203L, 0x8104868204040412L, 0x0008403429080820L,
+        0x0080148054262004L, 0x4040008218200400L, 0x0010120802080a81L, 0x1402440421000210L,
+        0x0080122082080440L, 0x8080880801082000L, 0x002444681203d200L, 0x0000312208080880L,
+        0x0001008044200440L, 0x0000958808402025L, 0x0206012462000121L, 0x000c042000800000L,
+        0xc014040288010002L, 0x2218080110210404L, 0x000948110c0b2081L, 0x000a20040301410aL,
+    };
+
+    public static final long[] ROOK_MASKS;
+    public static final byte[] ROOK_SHIFTS;
+    public static final int[] ROOK_OFFSETS;
+
+    public static final long[] BISHOP_MASKS;
+    public static final byte[] BISHOP_SHIFTS;
+    public static final int[] BISHOP_OFFSETS;
+
+    public static final long[] SLIDER_MOVES;
 
     private static long genRookMovesHQ(byte sq, long occupied, boolean genMask) 
     {
@@ -56,134 +106,108 @@ public class Magic {
         return (diagonalMoves | antidiagonalMoves) & edges;
     }
 
-    private static long[] genSubsets(long bb, int numSubsets) 
+    private static void fillMoves(
+        byte sq, boolean isRook, long magicNo, byte shift, int offset,
+        long blockerMask1, long lineMask1, long blockerMask2, long lineMask2
+    )
     {
-        long[] subsets = new long[numSubsets];
-        long currSubset = 0L;
-        short index = 0;
+        long[] lineMoves1 = genLineMoves(sq, isRook, blockerMask1, lineMask1);
+        long[] lineMoves2 = genLineMoves(sq, isRook, blockerMask2, lineMask2);
 
-        do {
-            subsets[index] = currSubset;
-            currSubset = (currSubset - bb) & bb;
-            index++;
-        } while (currSubset != 0);
+        long subset1 = 0L;
+        int i = 0;
 
-        return subsets;
+        do {
+            long subset2 = 0L;
+            int j = 0;
+
+            do {
+                int index = offset + (int)(((subset1 | subset2) * magicNo) >>> shift);
+                SLIDER_MOVES[index] = lineMoves1[i] | lineMoves2[j];
+                subset2 = (subset2 - blockerMask2) & blockerMask2;
+                j++;
+            } while (subset2 != 0);
+
+            subset1 = (subset1 - blockerMask1) & blockerMask1;
+            i++;
+        } while (subset1 != 0);
     }
 
-    static 
+    // The moves along a single line for every subset of the blockers on that
+    // line, in the order the subsets are walked with the Carry-Rippler trick.
+    private static long[] genLineMoves(byte sq, boolean isRook, long blockerMask, long lineMask)
     {
-        ROOK_MAGICS   = new MagicSqInfo[64];
-        BISHOP_MAGICS = new MagicSqInfo[64];
-        ROOK_MOVES    = new long[64][4096];
-        BISHOP_MOVES  = new long[64][512];
-
-        PRNG prng = new PRNG();
-
-        // Generate rook magic numbers and moves.
+        long[] lineMoves = new long[1 << Long.bitCount(blockerMask)];
+        long subset = 0L;
+        int i = 0;
 
-        for (int sq = 0; sq < 64; sq++) 
-        {
-            MagicSqInfo magic = new MagicSqInfo();
-            long blockerMask  = genRookMovesHQ((byte)sq, 0L, true);
-            int noBitsSetHigh = Long.bitCount(blockerMask);
-            byte shift = (byte)(64 - noBitsSetHigh);
-
-            magic.blockerMask = blockerMask;
-            magic.shift = shift;
+        do {
+            long moves = isRook ? genRookMovesHQ(sq, subset, false) : genBishopMovesHQ(sq, subset, false);
+            lineMoves[i++] = moves & lineMask;
+            subset = (subset - blockerMask) & blockerMask;
+        } while (subset != 0);
 
-            long[] subsets = genSubsets(blockerMask, 1 << noBitsSetHigh);
-            long[] subsetMoves = new long[1 << noBitsSetHigh];
+        return lineMoves;
+    }
 
-            for (int i = 0; i < (1 << noBitsSetHigh); i++)
-            {
-                subsetMoves[i] = genRookMovesHQ((byte)sq, subsets[i], false);
-            }
+    static 
+    {
+        ROOK_MASKS    = new long[64];
+        ROOK_SHIFTS   = new byte[64];
+        ROOK_OFFSETS  = new int[64];
 
-            prng.seed(MAGIC_SEEDS[Square.rankOf((byte)sq)]);
-            boolean searching = true;
+        BISHOP_MASKS   = new long[64];
+        BISHOP_SHIFTS  = new byte[64];
+        BISHOP_OFFSETS = new int[64];
 
-            while (searching)
-            {
-                long magicNo = prng.sparseRandomLong();
-                magic.magicNo = magicNo;
-                searching = false;
+        // Each square only gets as many table slots as its blocker mask has
+        // subsets, so lay the squares out back to back and find the total size
+        // before allocating the table.
 
-                for (int i = 0; i < (1 << 12); i++) 
-                {
-                    ROOK_MOVES[sq][i] = 0L;
-                }
+        int tableSize = 0;
+        for (int sq = 0; sq < 64; sq++)
+        {
+            ROOK_MASKS[sq]   = genRookMovesHQ((byte)sq, 0L, true);
+            ROOK_SHIFTS[sq]  = (byte)(64 - Long.bitCount(ROOK_MASKS[sq]));
+            ROOK_OFFSETS[sq] = tableSize;
+            tableSize += 1 << Long.bitCount(ROOK_MASKS[sq]);
+        }
 
-                for (int i = 0; i < (1 << noBitsSetHigh); i++)
-                {
-                    long subset = subsets[i];
-                    long moves = subsetMoves[i];
-                    long index = (subset * magicNo) >>> shift;
+        for (int sq = 0; sq < 64; sq++)
+        {
+            BISHOP_MASKS[sq]   = genBishopMovesHQ((byte)sq, 0L, true);
+            BISHOP_SHIFTS[sq]  = (byte)(64 - Long.bitCount(BISHOP_MASKS[sq]));
+            BISHOP_OFFSETS[sq] = tableSize;
+            tableSize += 1 << Long.bitCount(BISHOP_MASKS[sq]);
+        }
 
-                    if (ROOK_MOVES[sq][(int)index] != 0 && ROOK_MOVES[sq][(int)index] != moves) 
-                    {
-                        searching = true;
-                        break;
-                    }
+        SLIDER_MOVES = new long[tableSize];
 
-                    ROOK_MOVES[sq][(int)index] = moves;
-                }                
-            }
+        // Fill in each square's slice of the table. A slider's moves along one
+        // line don't depend on the blockers on its other line, so the moves
+        // are only generated once per subset of each line, and the slice is
+        // filled by combining them.
 
-            ROOK_MAGICS[sq] = magic;
-        } 
+        for (int sq = 0; sq < 64; sq++) 
+        {
+            long rankMask = Tables.MASK_RANK[Square.rankOf((byte)sq)];
+            long fileMask = Tables.MASK_FILE[Square.fileOf((byte)sq)];
 
-        // Generate bishop magic numbers and moves.
+            fillMoves(
+                (byte)sq, true, ROOK_MAGICS[sq], ROOK_SHIFTS[sq], ROOK_OFFSETS[sq],
+                ROOK_MASKS[sq] & rankMask, rankMask, ROOK_MASKS[sq] & fileMask, fileMask
+            );
+        }
 
         for (int sq = 0; sq < 64; sq++) 
         {
-            MagicSqInfo magic = new MagicSqInfo();
-            long blockerMask  = genBishopMovesHQ((byte)sq, 0L, true);
-            int noBitsSetHigh = Long.bitCount(blockerMask);
-            byte shift = (byte)(64 - noBitsSetHigh);
-
-            magic.blockerMask = blockerMask;
-            magic.shift = shift;
-
-            long[] subsets = genSubsets(blockerMask, 1 << noBitsSetHigh);
-            long[] subsetMoves = new long[1 << noBitsSetHigh];
-
-            for (int i = 0; i < (1 << noBitsSetHigh); i++)
-            {
-                subsetMoves[i] = genBishopMovesHQ((byte)sq, subsets[i], false);
-            }
-
-            prng.seed(MAGIC_SEEDS[Square.rankOf((byte)sq)]);
-            boolean searching = true;
-
-            while (searching)
-            {
-                long magicNo = prng.sparseRandomLong();
-                magic.magicNo = magicNo;
-                searching = false;
-
-                for (int i = 0; i < (1 << 9); i++) 
-                {
-                    BISHOP_MOVES[sq][i] = 0L;
-                }
-
-                for (int i = 0; i < (1 << noBitsSetHigh); i++)
-                {
-                    long subset = subsets[i];
-                    long moves = subsetMoves[i];
-                    long index = (subset * magicNo) >>> shift;
-
-                    if (BISHOP_MOVES[sq][(int)index] != 0 && BISHOP_MOVES[sq][(int)index] != moves) 
-                    {
-                        searching = true;
-                        break;
-                    }
-
-                    BISHOP_MOVES[sq][(int)index] = moves;
-                }                
-            }
-
-            BISHOP_MAGICS[sq] = magic;
-        } 
+            long diagonalMask = Tables.MASK_DIAGONAL[Square.fileOf((byte)sq)-Square.rankOf((byte)sq)+7];
+            long antidiagonalMask = Tables.MASK_ANTIDIAGONAL[14-(Square.rankOf((byte)sq)+Square.fileOf((byte)sq))];
+
+            fillMoves(
+                (byte)sq, false, BISHOP_MAGICS[sq], BISHOP_SHIFTS[sq], BISHOP_OFFSETS[sq],
+                BISHOP_MASKS[sq] & diagonalMask, diagonalMask, BISHOP_MASKS[sq] & antidiagonalMask, antidiagonalMask
+            );
+        }
     }
 }
@@ -1,7 +0,0 @@
-package fork.engine;
-
-public class MagicSqInfo {
-    long magicNo;
-    long blockerMask;
-    byte shift;
-}
\ No newline at end of file
@@ -48,7 +48,7 @@ public class Move {
 
     public static int addScore(int move, int score) 
     {
-        return (move & 0xffff0000) | score;
+        return (move & 0xffff0000) | (score & 0xffff);
     }
 
     public static boolean equals(int move_1, int move_2) 
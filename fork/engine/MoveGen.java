@@ -8,24 +8,202 @@ public class MoveGen
     public static MoveList genAllMoves(Position pos) 
     {
         MoveList moves = new MoveList();
-        long usBB = pos.sides[pos.stm];
-        long enemyBB = pos.sides[Position.flipColor(pos.stm)];
+        genAllMoves(pos, moves);
+        return moves;
+    }
+
+    // Generate all legal moves into the given move list, overwriting whatever
+    // it held before.
+    public static void genAllMoves(Position pos, MoveList moves) 
+    {
+        genMoves(pos, true, true, moves);
+    }
+
+    // Generate only the tactical moves: captures, en passant, and queen
+    // promotions.
+    public static void genCaptures(Position pos, MoveList moves) 
+    {
+        genMoves(pos, true, false, moves);
+    }
+
+    // Generate every move genCaptures doesn't: quiet moves, castling, and
+    // under-promotions.
+    public static void genQuiets(Position pos, MoveList moves) 
+    {
+        genMoves(pos, false, true, moves);
+    }
+
+    // Generate only legal moves, so a move never has to be verified after it's
+    // made. The pieces giving check and the pinned pieces are found once up
+    // front. A pinned piece may only move along the line running through it
+    // and its king, and while in check every piece but the king is limited to
+    // capturing the checker or blocking the check.
+    private static void genMoves(Position pos, boolean genTactical, boolean genQuiet, MoveList moves) 
+    {
+        moves.clear();
+        byte stm = pos.stm;
+        long usBB = pos.sides[stm];
+        long enemyBB = pos.sides[Position.flipColor(stm)];
+        long occupied = usBB | enemyBB;
+        long targets = (genTactical ? enemyBB : 0L) | (genQuiet ? ~occupied : 0L);
+
+        byte kingSq = Bitboard.findMSBPos(pos.pieces[Position.KING] & usBB);
+        long checkers = attackersOf(pos, stm, kingSq, occupied);
 
-        genKnightMoves(pos.pieces[Position.KNIGHT] & usBB, enemyBB, usBB, moves);
-        genKingMoves(pos.pieces[Position.KING] & usBB, enemyBB, usBB, moves);
+        genKingMoves(pos, kingSq, enemyBB, occupied, targets, moves);
 
-        genRookMoves(pos.pieces[Position.ROOK] & usBB, enemyBB, usBB, moves);
-        genBishopMoves(pos.pieces[Position.BISHOP] & usBB, enemyBB, usBB, moves);
-        genQueenMoves(pos.pieces[Position.QUEEN] & usBB, enemyBB, usBB, moves);
+        // In double check, only the king can move.
+        if (Long.bitCount(checkers) > 1)
+            return;
+
+        long checkMask = Bitboard.FULL_BB;
+        if (checkers != 0)
+            checkMask = checkers | Tables.RAYS_BETWEEN[kingSq][Bitboard.findMSBPos(checkers)];
+
+        long pinned = getPinnedPieces(pos, stm, kingSq);
+        targets &= checkMask;
+
+        // A pinned knight can never move, since it can't stay on the pin line.
+        genKnightMoves(pos.pieces[Position.KNIGHT] & usBB & ~pinned, enemyBB, targets, moves);
+
+        genRookMoves(pos.pieces[Position.ROOK] & usBB, enemyBB, usBB, targets, pinned, kingSq, moves);
+        genBishopMoves(pos.pieces[Position.BISHOP] & usBB, enemyBB, usBB, targets, pinned, kingSq, moves);
+        genQueenMoves(pos.pieces[Position.QUEEN] & usBB, enemyBB, usBB, targets, pinned, kingSq, moves);
         
         genPawnMoves(
-            pos.pieces[Position.PAWN] & usBB,
-            enemyBB, usBB, pos.stm, pos.epSq, moves
+            pos, pos.pieces[Position.PAWN] & usBB,
+            enemyBB, usBB, checkMask, pinned, kingSq, genTactical, genQuiet, moves
         );
 
-        genCastlingMoves(pos, moves);
+        if (genQuiet && checkers == 0)
+            genCastlingMoves(pos, moves);
+    }
 
-        return moves;
+    // Check whether a pseudo-legal move, such as a hash move or killer move,
+    // is also legal, using the same rules the legal move generator does.
+    public static boolean isLegal(Position pos, int move) 
+    {
+        if (!isPseudoLegal(pos, move))
+            return false;
+
+        byte from     = Move.getFromSq(move);
+        byte to       = Move.getToSq(move);
+        byte moveType = Move.getMoveType(move);
+
+        byte stm      = pos.stm;
+        long kingBB   = pos.pieces[Position.KING] & pos.sides[stm];
+        long occupied = pos.sides[Position.WHITE] | pos.sides[Position.BLACK];
+        long toBB     = Bitboard.MSB >>> to;
+        byte kingSq   = Bitboard.findMSBPos(kingBB);
+
+        if (moveType == Move.CASTLE)
+            return !sqIsAttacked(pos, stm, kingSq) && castlingPathIsSafe(pos, stm, to);
+
+        if (from == kingSq)
+            return attackersOf(pos, stm, to, occupied ^ kingBB) == 0;
+
+        if (moveType == Move.ATTACK && Move.getFlag(move) == Move.ATTACK_EP)
+            return epCaptureIsLegal(pos, from, to, kingSq);
+
+        long checkers = attackersOf(pos, stm, kingSq, occupied);
+        if (Long.bitCount(checkers) > 1)
+            return false;
+
+        if (checkers != 0 && ((checkers | Tables.RAYS_BETWEEN[kingSq][Bitboard.findMSBPos(checkers)]) & toBB) == 0)
+            return false;
+
+        long pinned = getPinnedPieces(pos, stm, kingSq);
+        return !Bitboard.bitSet(pinned, from) || (Tables.LINES[kingSq][from] & toBB) != 0;
+    }
+
+    // Check whether a move, usually one taken from the transposition table or
+    // the killer move slots, could have been generated in the given position.
+    // This lets the search try such moves before generating any others.
+    public static boolean isPseudoLegal(Position pos, int move) 
+    {
+        byte from     = Move.getFromSq(move);
+        byte to       = Move.getToSq(move);
+        byte moveType = Move.getMoveType(move);
+        byte flag     = Move.getFlag(move);
+
+        long usBB     = pos.sides[pos.stm];
+        long enemyBB  = pos.sides[Position.flipColor(pos.stm)];
+        long occupied = usBB | enemyBB;
+        long toBB     = Bitboard.MSB >>> to;
+
+        if (move == Move.NULL_MOVE || !Bitboard.bitSet(usBB, from) || (usBB & toBB) != 0)
+            return false;
+
+        byte pieceType = pos.getPieceType(from);
+        boolean isCapture = (enemyBB & toBB) != 0;
+
+        if (moveType == Move.CASTLE)
+            return pieceType == Position.KING && flag == Move.NO_FLAG && isCastlingPseudoLegal(pos, from, to, occupied);
+
+        if (pieceType == Position.PAWN)
+        {
+            byte stm = pos.stm;
+            long pawnOnePush = Tables.PAWN_PUSHES[stm][from] & ~occupied;
+            long pawnTwoPush = 0L;
+
+            if (stm == Position.WHITE)
+                pawnTwoPush = ((pawnOnePush & Tables.MASK_RANK[Tables.RANK_3]) >>> 8) & ~occupied;
+            else 
+                pawnTwoPush = ((pawnOnePush & Tables.MASK_RANK[Tables.RANK_6]) << 8) & ~occupied;
+
+            long pawnAttacks = Tables.PAWN_ATTACKS[stm][from];
+
+            if (moveType == Move.ATTACK && flag == Move.ATTACK_EP)
+                return to == pos.epSq && (pawnAttacks & toBB) != 0;
+
+            if (isPromoting(stm, to) != (moveType == Move.PROMOTION))
+                return false;
+
+            return switch (moveType)
+            {
+                case Move.QUIET     -> flag == Move.NO_FLAG && ((pawnOnePush | pawnTwoPush) & toBB) != 0;
+                case Move.ATTACK    -> flag == Move.NO_FLAG && isCapture && (pawnAttacks & toBB) != 0;
+                case Move.PROMOTION -> isCapture ? (pawnAttacks & toBB) != 0 : (pawnOnePush & toBB) != 0;
+                default             -> false;
+            };
+        }
+
+        if (moveType != (isCapture ? Move.ATTACK : Move.QUIET) || flag != Move.NO_FLAG)
+            return false;
+
+        long movesBB = switch (pieceType)
+        {
+            case Position.KNIGHT -> Tables.KNIGHT_MOVES[from];
+            case Position.KING   -> Tables.KING_MOVES[from];
+            case Position.BISHOP -> genBishopMovesBB(from, occupied);
+            case Position.ROOK   -> genRookMovesBB(from, occupied);
+            case Position.QUEEN  -> genBishopMovesBB(from, occupied) | genRookMovesBB(from, occupied);
+            default              -> 0L;
+        };
+
+        return (movesBB & toBB) != 0;
+    }
+
+    private static boolean isCastlingPseudoLegal(Position pos, byte from, byte to, long occupied) 
+    {
+        if (pos.stm == Position.WHITE) 
+        {
+            if (from != Square.E1)
+                return false;
+            if (to == Square.G1)
+                return (pos.rights & Position.WHITE_KS_RIGHT) != 0 && (occupied & F1_G1) == 0;
+            if (to == Square.C1)
+                return (pos.rights & Position.WHITE_QS_RIGHT) != 0 && (occupied & B1_C1_D1) == 0;
+            return false;
+        }
+
+        if (from != Square.E8)
+            return false;
+        if (to == Square.G8)
+            return (pos.rights & Position.BLACK_KS_RIGHT) != 0 && (occupied & F8_G8) == 0;
+        if (to == Square.C8)
+            return (pos.rights & Position.BLACK_QS_RIGHT) != 0 && (occupied & B8_C8_D8) == 0;
+        return false;
     }
 
     public static boolean sqIsAttacked(Position pos, byte usColor, byte sq) 
@@ -58,89 +236,196 @@ public class MoveGen
         return false;
     }
 
+    // Find the enemy pieces attacking the given square, treating the squares
+    // in occupied as the only ones with pieces on them that can block.
+    public static long attackersOf(Position pos, byte usColor, byte sq, long occupied) 
+    {
+        long enemyBB = pos.sides[Position.flipColor(usColor)];
+        long queens  = pos.pieces[Position.QUEEN];
+
+        return ((Tables.KNIGHT_MOVES[sq] & pos.pieces[Position.KNIGHT])                   |
+                (Tables.KING_MOVES[sq] & pos.pieces[Position.KING])                       |
+                (Tables.PAWN_ATTACKS[usColor][sq] & pos.pieces[Position.PAWN])            |
+                (genBishopMovesBB(sq, occupied) & (pos.pieces[Position.BISHOP] | queens)) |
+                (genRookMovesBB(sq, occupied) & (pos.pieces[Position.ROOK] | queens))) & enemyBB;
+    }
+
+    // Find the pieces of the given color pinned to their king: pieces that are
+    // the only piece standing between the king and an enemy slider.
+    private static long getPinnedPieces(Position pos, byte usColor, byte kingSq) 
+    {
+        long usBB = pos.sides[usColor];
+        long enemyBB = pos.sides[Position.flipColor(usColor)];
+        long occupied = usBB | enemyBB;
+
+        long enemyQueensAndRooks = enemyBB & (pos.pieces[Position.QUEEN] | pos.pieces[Position.ROOK]);
+        long enemyQueensAndBishops = enemyBB & (pos.pieces[Position.QUEEN] | pos.pieces[Position.BISHOP]);
+
+        long potentialPinners = (enemyQueensAndRooks & genRookMovesBB(kingSq, enemyBB)) | 
+                                (enemyQueensAndBishops & genBishopMovesBB(kingSq, enemyBB));
+        long pinned = 0L;
+
+        while (potentialPinners != 0)
+        {
+            byte pinnerSq = Bitboard.findMSBPos(potentialPinners);
+            potentialPinners = Bitboard.clearBit(potentialPinners, pinnerSq);
+
+            long between = Tables.RAYS_BETWEEN[kingSq][pinnerSq] & occupied;
+            if (Long.bitCount(between) == 1)
+                pinned |= between & usBB;
+        }
+
+        return pinned;
+    }
+
+    // An en passant capture removes two pieces from the same rank at once, which
+    // can expose the king in ways the pin and check masks don't catch, so it's
+    // verified by looking for attackers of the king after the capture.
+    private static boolean epCaptureIsLegal(Position pos, byte from, byte to, byte kingSq) 
+    {
+        byte capturedSq = (byte)(pos.stm == Position.WHITE ? to - 8 : to + 8);
+        long capturedBB = Bitboard.MSB >>> capturedSq;
+        long occupied = pos.sides[Position.WHITE] | pos.sides[Position.BLACK];
+
+        occupied = (occupied ^ (Bitboard.MSB >>> from) ^ capturedBB) | (Bitboard.MSB >>> to);
+        return (attackersOf(pos, pos.stm, kingSq, occupied) & ~capturedBB) == 0;
+    }
+
+    private static boolean castlingPathIsSafe(Position pos, byte stm, byte to) 
+    {
+        byte firstSqCrossed = switch(to) 
+        {
+            case Square.G1 -> Square.F1;
+            case Square.C1 -> Square.D1;
+            case Square.G8 -> Square.F8;
+            default        -> Square.D8;
+        };
+
+        return !sqIsAttacked(pos, stm, firstSqCrossed) && !sqIsAttacked(pos, stm, to);
+    }
+
     public static long perft(Position pos, byte depth) 
+    {
+        MoveList[] moveLists = new MoveList[depth + 1];
+        for (int i = 0; i <= depth; i++)
+            moveLists[i] = new MoveList();
+
+        return perft(pos, depth, moveLists);
+    }
+
+    private static long perft(Position pos, byte depth, MoveList[] moveLists) 
     {
         if (depth == 0)
             return 1L;
         
-        MoveList moves = genAllMoves(pos);
-        long nodes = 0L;
+        MoveList moves = moveLists[depth];
+        genAllMoves(pos, moves);
+
+        // Bulk counting: every generated move is legal, so at the last ply
+        // the number of moves is the number of leaf nodes.
+        if (depth == 1)
+            return moves.count;
 
-        byte kingSq = Bitboard.findMSBPos(pos.pieces[Position.KING] & pos.sides[pos.stm]);
-        boolean inCheck = MoveGen.sqIsAttacked(pos, pos.stm, kingSq);
+        long nodes = 0L;
 
         for (int i = 0; i < moves.count; i++) 
         {
             int move = moves.moves[i];
-            Position newPos = pos.copy();
-
-            if (newPos.makeMove(move, inCheck, kingSq)) 
-            {
-                nodes += perft(newPos, (byte)(depth-1));
-            }
+            pos.makeMove(move);
+            nodes += perft(pos, (byte)(depth-1), moveLists);
+            pos.unmakeMove(move);
         }
         return nodes;
     }
 
-    private static void genKnightMoves(long knightBB, long enemyBB, long usBB, MoveList moves) 
+    private static void genKnightMoves(long knightBB, long enemyBB, long targets, MoveList moves) 
     {
         while (knightBB != 0) 
         {
             byte from = Bitboard.findMSBPos(knightBB);
             knightBB = Bitboard.clearBit(knightBB, from);
-            genMovesFromBB(Tables.KNIGHT_MOVES[from] & ~usBB, enemyBB, from, moves);
+            genMovesFromBB(Tables.KNIGHT_MOVES[from] & targets, enemyBB, from, moves);
         }
     }
 
-    private static void genKingMoves(long kingBB, long enemyBB, long usBB, MoveList moves) 
+    private static void genKingMoves(Position pos, byte kingSq, long enemyBB, long occupied, long targets, MoveList moves) 
     {
-        while (kingBB != 0) 
+        // Take the king off the board while checking the squares it moves to,
+        // so it can't hide from a slider on the square behind it.
+        long occupiedWithoutKing = occupied ^ (Bitboard.MSB >>> kingSq);
+        long kingMoves = Tables.KING_MOVES[kingSq] & targets;
+        long safeMoves = 0L;
+
+        while (kingMoves != 0) 
         {
-            byte from = Bitboard.findMSBPos(kingBB);
-            kingBB = Bitboard.clearBit(kingBB, from);
-            genMovesFromBB(Tables.KING_MOVES[from] & ~usBB, enemyBB, from, moves);
+            byte to = Bitboard.findMSBPos(kingMoves);
+            kingMoves = Bitboard.clearBit(kingMoves, to);
+
+            if (attackersOf(pos, pos.stm, to, occupiedWithoutKing) == 0)
+                safeMoves = Bitboard.setBit(safeMoves, to);
         }
+
+        genMovesFromBB(safeMoves, enemyBB, kingSq, moves);
     }
 
-    private static void genRookMoves(long rookBB, long enemyBB, long usBB, MoveList moves) 
+    private static void genRookMoves(
+        long rookBB, long enemyBB, long usBB, long targets, 
+        long pinned, byte kingSq, MoveList moves
+    ) 
     {
         while (rookBB != 0) 
         {
             byte from = Bitboard.findMSBPos(rookBB);
             rookBB = Bitboard.clearBit(rookBB, from);
-            genMovesFromBB(genRookMovesBB(from, enemyBB|usBB) & ~usBB, enemyBB, from, moves);
+            long pinMask = Bitboard.bitSet(pinned, from) ? Tables.LINES[kingSq][from] : Bitboard.FULL_BB;
+            genMovesFromBB(genRookMovesBB(from, enemyBB|usBB) & targets & pinMask, enemyBB, from, moves);
         }
     }
 
-    private static void genBishopMoves(long bishopBB, long enemyBB, long usBB, MoveList moves) 
+    private static void genBishopMoves(
+        long bishopBB, long enemyBB, long usBB, long targets, 
+        long pinned, byte kingSq, MoveList moves
+    ) 
     {
         while (bishopBB != 0) 
         {
             byte from = Bitboard.findMSBPos(bishopBB);
             bishopBB = Bitboard.clearBit(bishopBB, from);
-            genMovesFromBB(genBishopMovesBB(from, enemyBB|usBB) & ~usBB, enemyBB, from, moves);
+            long pinMask = Bitboard.bitSet(pinned, from) ? Tables.LINES[kingSq][from] : Bitboard.FULL_BB;
+            genMovesFromBB(genBishopMovesBB(from, enemyBB|usBB) & targets & pinMask, enemyBB, from, moves);
         }
     }
 
-    private static void genQueenMoves(long queenBB, long enemyBB, long usBB, MoveList moves) 
+    private static void genQueenMoves(
+        long queenBB, long enemyBB, long usBB, long targets, 
+        long pinned, byte kingSq, MoveList moves
+    ) 
     {
         while (queenBB != 0) 
         {
             byte from = Bitboard.findMSBPos(queenBB);
             queenBB = Bitboard.clearBit(queenBB, from);
+            long pinMask = Bitboard.bitSet(pinned, from) ? Tables.LINES[kingSq][from] : Bitboard.FULL_BB;
             genMovesFromBB(
-                (genRookMovesBB(from, enemyBB|usBB) | genBishopMovesBB(from, enemyBB|usBB)) & ~usBB, 
+                (genRookMovesBB(from, enemyBB|usBB) | genBishopMovesBB(from, enemyBB|usBB)) & targets & pinMask, 
                 enemyBB, from, moves
             );
         }
     }
 
-    private static void genPawnMoves(long pawnBB, long enemyBB, long usBB, byte stm, byte epSq, MoveList moves) 
+    private static void genPawnMoves(
+        Position pos, long pawnBB, long enemyBB, long usBB, long checkMask, long pinned, 
+        byte kingSq, boolean genTactical, boolean genQuiet, MoveList moves
+    ) 
     {
+        byte stm = pos.stm;
+        byte epSq = pos.epSq;
+
         while (pawnBB != 0) 
         {
             byte from = Bitboard.findMSBPos(pawnBB);
             pawnBB = Bitboard.clearBit(pawnBB, from);
+            long pinMask = Bitboard.bitSet(pinned, from) ? Tables.LINES[kingSq][from] : Bitboard.FULL_BB;
 
             long pawnOnePush = Tables.PAWN_PUSHES[stm][from] & ~(usBB | enemyBB);
             long pawnTwoPush = 0L;
@@ -150,8 +435,14 @@ public class MoveGen
             else 
                 pawnTwoPush = ((pawnOnePush & Tables.MASK_RANK[Tables.RANK_6]) << 8) & ~(usBB | enemyBB);
 
-            long pawnPush = pawnOnePush | pawnTwoPush;
-            long pawnAttacks = Tables.PAWN_ATTACKS[stm][from] & (enemyBB | ((Bitboard.MSB >>> epSq) & Tables.CLEAR_RANK[Tables.RANK_1]));
+            long pawnPush = (pawnOnePush | pawnTwoPush) & checkMask & pinMask;
+            long pawnAttacks = Tables.PAWN_ATTACKS[stm][from] & enemyBB & checkMask & pinMask;
+
+            if (genTactical && epSq != Square.NO_SQ && Bitboard.bitSet(Tables.PAWN_ATTACKS[stm][from], epSq) && 
+                epCaptureIsLegal(pos, from, epSq, kingSq))
+            {
+                moves.addMove(Move.makeMove(from, epSq, Move.ATTACK, Move.ATTACK_EP));
+            }
 
             while (pawnPush != 0) 
             {
@@ -159,8 +450,8 @@ public class MoveGen
                 pawnPush = Bitboard.clearBit(pawnPush, to);
 
                 if (isPromoting(stm, to))
-                    genPromotionMoves(from, to, moves);
-                else
+                    genPromotionMoves(from, to, genTactical, genQuiet, moves);
+                else if (genQuiet)
                     moves.addMove(Move.makeMove(from, to, Move.QUIET, Move.NO_FLAG));
             }
 
@@ -169,34 +460,35 @@ public class MoveGen
                 byte to = Bitboard.findMSBPos(pawnAttacks);
                 pawnAttacks = Bitboard.clearBit(pawnAttacks, to);
 
-                if (to == epSq)
-                    moves.addMove(Move.makeMove(from, to, Move.ATTACK, Move.ATTACK_EP));
-                else
-                {
-                    if (isPromoting(stm, to))
-                        genPromotionMoves(from, to, moves);
-                    else
-                        moves.addMove(Move.makeMove(from, to, Move.ATTACK, Move.NO_FLAG));
-                }
+                if (isPromoting(stm, to))
+                    genPromotionMoves(from, to, genTactical, genQuiet, moves);
+                else if (genTactical)
+                    moves.addMove(Move.makeMove(from, to, Move.ATTACK, Move.NO_FLAG));
             }
         }   
     }
 
+    // Only called when the king isn't in check, so all that's left to verify
+    // is that the path is clear and the king doesn't cross an attacked square.
     private static void genCastlingMoves(Position pos, MoveList moves) 
     {
         long allPieces = pos.sides[pos.stm] | pos.sides[Position.flipColor(pos.stm)];
         if (pos.stm == Position.WHITE) 
         {
-            if ((pos.rights & Position.WHITE_KS_RIGHT) != 0 && (allPieces & F1_G1) == 0)
+            if ((pos.rights & Position.WHITE_KS_RIGHT) != 0 && (allPieces & F1_G1) == 0 && 
+                castlingPathIsSafe(pos, pos.stm, Square.G1))
                 moves.addMove(Move.makeMove(Square.E1, Square.G1, Move.CASTLE, Move.NO_FLAG));
-            if ((pos.rights & Position.WHITE_QS_RIGHT) != 0 && (allPieces & B1_C1_D1) == 0)
+            if ((pos.rights & Position.WHITE_QS_RIGHT) != 0 && (allPieces & B1_C1_D1) == 0 && 
+                castlingPathIsSafe(pos, pos.stm, Square.C1))
                 moves.addMove(Move.makeMove(Square.E1, Square.C1, Move.CASTLE, Move.NO_FLAG));
         } 
         else 
         {
-            if ((pos.rights & Position.BLACK_KS_RIGHT) != 0 && (allPieces & F8_G8) == 0)
+            if ((pos.rights & Position.BLACK_KS_RIGHT) != 0 && (allPieces & F8_G8) == 0 && 
+                castlingPathIsSafe(pos, pos.stm, Square.G8))
                 moves.addMove(Move.makeMove(Square.E8, Square.G8, Move.CASTLE, Move.NO_FLAG));
-            if ((pos.rights & Position.BLACK_QS_RIGHT) != 0 && (allPieces & B8_C8_D8) == 0)
+            if ((pos.rights & Position.BLACK_QS_RIGHT) != 0 && (allPieces & B8_C8_D8) == 0 && 
+                castlingPathIsSafe(pos, pos.stm, Square.C8))
                 moves.addMove(Move.makeMove(Square.E8, Square.C8, Move.CASTLE, Move.NO_FLAG));
         }
     }
@@ -205,11 +497,15 @@ public class MoveGen
         return stm == Position.WHITE ? to >= 56 && to <= 63 : to <= 7;
     }
     
-    private static void genPromotionMoves(byte from, byte to, MoveList moves) {
-        moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.KNIGHT_PROMO));
-        moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.BISHOP_PROMO));
-        moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.ROOK_PROMO));
-        moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.QUEEN_PROMO));
+    private static void genPromotionMoves(byte from, byte to, boolean genTactical, boolean genQuiet, MoveList moves) {
+        if (genQuiet) 
+        {
+            moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.KNIGHT_PROMO));
+            moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.BISHOP_PROMO));
+            moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.ROOK_PROMO));
+        }
+        if (genTactical)
+            moves.addMove(Move.makeMove(from, to, Move.PROMOTION, Move.QUEEN_PROMO));
     } 
 
     private static void genMovesFromBB(long movesBB, long enemyBB, byte from, MoveList moves) 
@@ -226,17 +522,15 @@ public class MoveGen
 
     public static long genRookMovesBB(byte from, long blockers) 
     {
-        MagicSqInfo magic = Magic.ROOK_MAGICS[from];
-        blockers &= magic.blockerMask;
-        long index = (blockers * magic.magicNo) >>> magic.shift;
-        return Magic.ROOK_MOVES[from][(int)index];
+        blockers &= Magic.ROOK_MASKS[from];
+        int index = (int)((blockers * Magic.ROOK_MAGICS[from]) >>> Magic.ROOK_SHIFTS[from]);
+        return Magic.SLIDER_MOVES[Magic.ROOK_OFFSETS[from] + index];
     }
 
     public static long genBishopMovesBB(byte from, long blockers) 
     {
-        MagicSqInfo magic = Magic.BISHOP_MAGICS[from];
-        blockers &= magic.blockerMask;
-        long index = (blockers * magic.magicNo) >>> magic.shift;
-        return Magic.BISHOP_MOVES[from][(int)index];
+        blockers &= Magic.BISHOP_MASKS[from];
+        int index = (int)((blockers * Magic.BISHOP_MAGICS[from]) >>> Magic.BISHOP_SHIFTS[from]);
+        return Magic.SLIDER_MOVES[Magic.BISHOP_OFFSETS[from] + index];
     }
 }
@@ -5,7 +5,7 @@ public class MoveList
     private static final int MAX_MOVES = 255;
 
     public int[] moves;
-    public byte count;
+    public int count;
 
     public MoveList() 
     {
@@ -13,6 +13,11 @@ public class MoveList
         count = 0;
     }
 
+    public void clear()
+    {
+        count = 0;
+    }
+
     public void addMove(int move) 
     {
         moves[count] = move;
@@ -0,0 +1,236 @@
+package fork.engine;
+
+// Hands out the moves of a position one at a time, generating them in stages
+// so a node that cuts off early never pays for generating or sorting moves it
+// doesn't try. In the main search the stages are: the hash move, captures
+// that win or trade material, the killer moves, quiet moves, and finally
+// captures that lose material. Quiescence search only uses the hash move and
+// the captures that don't lose material.
+public class MovePicker
+{
+    private static final byte HASH_MOVE     = 0;
+    private static final byte GEN_CAPTURES  = 1;
+    private static final byte GOOD_CAPTURES = 2;
+    private static final byte FIRST_KILLER  = 3;
+    private static final byte SECOND_KILLER = 4;
+    private static final byte GEN_QUIETS    = 5;
+    private static final byte QUIETS        = 6;
+    private static final byte BAD_CAPTURES  = 7;
+    private static final byte DONE          = 8;
+
+    private static final int GOOD_CAPTURE_SCORE = 1000;
+    private static final int QUEEN_PROMO_SCORE  = 50;
+
+    private static final int[][] MVV_LVA = new int[][] {
+        {0, 0, 0, 0, 0, 0},
+        {0, 30, 31, 32, 33, 34},   // attacking pawn
+        {0, 25, 26, 27, 28, 29},   // attacking knight
+        {0, 20, 21, 22, 23, 24},   // attacking bishop
+        {0, 15, 16, 17, 18, 19},   // attacking rook
+        {0, 10, 11, 12, 13, 14},   // attacking queen
+        {0, 5,  6,  7,  8,  9 },        // attacking king
+    };
+
+    private final MoveList captures = new MoveList();
+    private final MoveList quiets   = new MoveList();
+
+    // The search's butterfly history table, indexed by side, from square, and
+    // to square.
+    private final int[][][] history;
+
+    private Position pos;
+    private int hashMove;
+    private int firstKiller;
+    private int secondKiller;
+    private boolean capturesOnly;
+
+    private byte stage;
+    private int captureIndex;
+    private int quietIndex;
+
+    public MovePicker(int[][][] history)
+    {
+        this.history = history;
+    }
+
+    public void init(Position pos, int hashMove, int firstKiller, int secondKiller)
+    {
+        this.pos = pos;
+        this.hashMove = MoveGen.isLegal(pos, hashMove) ? hashMove : Move.NULL_MOVE;
+        this.firstKiller = firstKiller;
+        this.secondKiller = secondKiller;
+        this.capturesOnly = false;
+
+        stage = HASH_MOVE;
+        captureIndex = 0;
+        quietIndex = 0;
+    }
+
+    public void initForQuiescence(Position pos, int hashMove)
+    {
+        init(pos, isTactical(hashMove) ? hashMove : Move.NULL_MOVE, Move.NULL_MOVE, Move.NULL_MOVE);
+        capturesOnly = true;
+    }
+
+    // Return the next move to search, or Move.NULL_MOVE once every move has
+    // been handed out.
+    public int nextMove()
+    {
+        while (true)
+        {
+            switch (stage)
+            {
+                case HASH_MOVE:
+                    stage = GEN_CAPTURES;
+                    if (hashMove != Move.NULL_MOVE)
+                        return hashMove;
+                    break;
+                case GEN_CAPTURES:
+                    MoveGen.genCaptures(pos, captures);
+                    scoreCaptures();
+                    stage = GOOD_CAPTURES;
+                    break;
+                case GOOD_CAPTURES:
+                    while (captureIndex < captures.count)
+                    {
+                        swapBestMoveToIdx(captures, captureIndex);
+                        int move = captures.moves[captureIndex];
+
+                        // The captures are handed out best first, so once we reach a bad one
+                        // the rest are bad too, and are left for the last stage.
+                        if (Move.getScore(move) < GOOD_CAPTURE_SCORE)
+                            break;
+
+                        captureIndex++;
+                        if (!Move.equals(move, hashMove))
+                            return move;
+                    }
+                    stage = capturesOnly ? DONE : FIRST_KILLER;
+                    break;
+                case FIRST_KILLER:
+                    stage = SECOND_KILLER;
+                    if (isUsableKiller(firstKiller))
+                        return firstKiller;
+                    firstKiller = Move.NULL_MOVE;
+                    break;
+                case SECOND_KILLER:
+                    stage = GEN_QUIETS;
+                    if (!Move.equals(secondKiller, firstKiller) && isUsableKiller(secondKiller))
+                        return secondKiller;
+                    secondKiller = Move.NULL_MOVE;
+                    break;
+                case GEN_QUIETS:
+                    MoveGen.genQuiets(pos, quiets);
+                    scoreQuiets();
+                    stage = QUIETS;
+                    break;
+                case QUIETS:
+                    while (quietIndex < quiets.count)
+                    {
+                        swapBestMoveToIdx(quiets, quietIndex);
+                        int move = quiets.moves[quietIndex++];
+                        if (!Move.equals(move, hashMove) &&
+                            !Move.equals(move, firstKiller) &&
+                            !Move.equals(move, secondKiller))
+                        {
+                            return move;
+                        }
+                    }
+                    stage = BAD_CAPTURES;
+                    break;
+                case BAD_CAPTURES:
+                    while (captureIndex < captures.count)
+                    {
+                        swapBestMoveToIdx(captures, captureIndex);
+                        int move = captures.moves[captureIndex++];
+                        if (!Move.equals(move, hashMove))
+                            return move;
+                    }
+                    stage = DONE;
+                    break;
+                default:
+                    return Move.NULL_MOVE;
+            }
+        }
+    }
+
+    // Tactical moves are the ones generated by MoveGen.genCaptures, and the
+    // only ones searched by quiescence search.
+    public static boolean isTactical(int move)
+    {
+        byte moveType = Move.getMoveType(move);
+        return moveType == Move.ATTACK || (moveType == Move.PROMOTION && Move.getFlag(move) == Move.QUEEN_PROMO);
+    }
+
+    private boolean isUsableKiller(int killer)
+    {
+        return killer != Move.NULL_MOVE &&
+               !Move.equals(killer, hashMove) &&
+               !isTactical(killer) &&
+               MoveGen.isLegal(pos, killer);
+    }
+
+    // Order captures by MVV-LVA, and count a capture as good when it doesn't
+    // lose material by static exchange evaluation. Taking a piece worth at
+    // least as much as the piece taking it can't lose, so SEE is only needed
+    // for the rest. King captures are always good, since the king can't take
+    // a defended piece.
+    private void scoreCaptures()
+    {
+        for (int i = 0; i < captures.count; i++)
+        {
+            int move = captures.moves[i];
+            int from = Move.getFromSq(move), to = Move.getToSq(move);
+            byte attackerType = pos.getPieceType(from);
+
+            if (Move.getMoveType(move) == Move.PROMOTION)
+            {
+                int score = QUEEN_PROMO_SCORE + MVV_LVA[attackerType][pos.getPieceType(to)];
+                captures.moves[i] = Move.addScore(move, GOOD_CAPTURE_SCORE + score);
+                continue;
+            }
+
+            byte attackedType = Move.getFlag(move) == Move.ATTACK_EP ? Position.PAWN : pos.getPieceType(to);
+            int score = MVV_LVA[attackerType][attackedType];
+
+            if (attackedType >= attackerType || attackerType == Position.KING || SEE.see(pos, move, 0))
+                score += GOOD_CAPTURE_SCORE;
+
+            captures.moves[i] = Move.addScore(move, score);
+        }
+    }
+
+    private void scoreQuiets()
+    {
+        int[][] sideHistory = history[pos.stm];
+        for (int i = 0; i < quiets.count; i++)
+        {
+            int move = quiets.moves[i];
+            quiets.moves[i] = Move.addScore(move, sideHistory[Move.getFromSq(move)][Move.getToSq(move)]);
+        }
+    }
+
+    private void swapBestMoveToIdx(MoveList moveList, int index)
+    {
+        int[] moves = moveList.moves;
+        int bestMoveScore = Move.getScore(moves[index]);
+        int bestMoveIndex = index;
+
+        for (int i = index; i < moveList.count; i++)
+        {
+            int moveScore = Move.getScore(moves[i]);
+            if (moveScore > bestMoveScore)
+            {
+                bestMoveScore = moveScore;
+                bestMoveIndex = i;
+            }
+        }
+
+        if (bestMoveIndex != index)
+        {
+            int bestMove = moves[bestMoveIndex];
+            moves[bestMoveIndex] = moves[index];
+            moves[index] = bestMove;
+        }
+    }
+}
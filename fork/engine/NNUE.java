@@ -0,0 +1,161 @@
+package fork.engine;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// An efficiently updatable neural network evaluation. The network has 768
+// inputs, one for each combination of piece color, piece type, and square,
+// seen from the point of view of each side, a single hidden layer fed by
+// those inputs, and one output fed by the hidden layer of both sides with
+// the side to move first. The hidden layer is clipped to [0, QA].
+//
+// Weights are quantized to 16 bit integers, and are read from a little
+// endian file laid out as follows:
+//
+//   int32   : MAGIC
+//   int32   : hidden layer size, H
+//   int16[] : input weights, 768 * H, grouped by input
+//   int16[] : hidden biases, H
+//   int16[] : output weights, 2 * H, the side to move's half first
+//   int32   : output bias
+//
+// The input weights and hidden biases are scaled by QA, the output weights by
+// QB, and the output bias by QA * QB.
+public class NNUE
+{
+    public static final int MAGIC      = 0x45554e46;
+    public static final int NUM_INPUTS = 768;
+
+    public static final int QA    = 255;
+    public static final int QB    = 64;
+    public static final int SCALE = 400;
+
+    // The vector API is still an incubator module, so it's only used when the
+    // JVM was started with --add-modules jdk.incubator.vector. Otherwise the
+    // scalar loops below are used.
+    public static final boolean VECTOR_API_AVAILABLE =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    public final int hiddenSize;
+    public final String path;
+
+    final short[] inputWeights;
+    final short[] hiddenBiases;
+    final short[] outputWeights;
+    final int outputBias;
+
+    private final boolean vectorized;
+
+    private NNUE(String path, int hiddenSize, short[] inputWeights, short[] hiddenBiases, short[] outputWeights, int outputBias)
+    {
+        this.path = path;
+        this.hiddenSize = hiddenSize;
+        this.inputWeights = inputWeights;
+        this.hiddenBiases = hiddenBiases;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+        this.vectorized = VECTOR_API_AVAILABLE && hiddenSize % NNUEVector.SHORT_LANES == 0;
+    }
+
+    public static NNUE load(String path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+                throw new IOException("not a network file: " + path);
+
+            int hiddenSize = buffer.getInt();
+            long expectedSize = 8L + 2L * ((long)NUM_INPUTS * hiddenSize + 3L * hiddenSize) + 4L;
+
+            if (hiddenSize <= 0 || channel.size() != expectedSize)
+                throw new IOException("network file has the wrong size: " + path);
+
+            short[] inputWeights  = new short[NUM_INPUTS * hiddenSize];
+            short[] hiddenBiases  = new short[hiddenSize];
+            short[] outputWeights = new short[2 * hiddenSize];
+
+            buffer.asShortBuffer().get(inputWeights);
+            buffer.position(buffer.position() + 2 * inputWeights.length);
+            buffer.asShortBuffer().get(hiddenBiases);
+            buffer.position(buffer.position() + 2 * hiddenBiases.length);
+            buffer.asShortBuffer().get(outputWeights);
+            buffer.position(buffer.position() + 2 * outputWeights.length);
+            int outputBias = buffer.getInt();
+
+            return new NNUE(path, hiddenSize, inputWeights, hiddenBiases, outputWeights, outputBias);
+        }
+    }
+
+    // The input for a piece as seen from the given side: the side's own pieces
+    // come first, and the board is flipped vertically for black, so both sides
+    // see the position the same way.
+    public static int inputIndex(byte perspective, byte pieceColor, byte pieceType, byte sq)
+    {
+        int relativeSq = perspective == Position.WHITE ? sq : sq ^ 56;
+        int side = pieceColor == perspective ? 0 : 1;
+        return side * 384 + (pieceType - 1) * 64 + relativeSq;
+    }
+
+    public boolean isVectorized()
+    {
+        return vectorized;
+    }
+
+    void addInput(short[] accumulator, int input)
+    {
+        int offset = input * hiddenSize;
+        if (vectorized)
+        {
+            NNUEVector.add(accumulator, inputWeights, offset, hiddenSize);
+            return;
+        }
+
+        for (int i = 0; i < hiddenSize; i++)
+            accumulator[i] += inputWeights[offset + i];
+    }
+
+    void subInput(short[] accumulator, int input)
+    {
+        int offset = input * hiddenSize;
+        if (vectorized)
+        {
+            NNUEVector.sub(accumulator, inputWeights, offset, hiddenSize);
+            return;
+        }
+
+        for (int i = 0; i < hiddenSize; i++)
+            accumulator[i] -= inputWeights[offset + i];
+    }
+
+    // Score the position from the side to move's point of view, given the
+    // hidden layers of the side to move and of its opponent.
+    int evaluate(short[] us, short[] them)
+    {
+        int sum;
+        if (vectorized)
+            sum = NNUEVector.clippedDot(us, outputWeights, 0, QA, hiddenSize) +
+                  NNUEVector.clippedDot(them, outputWeights, hiddenSize, QA, hiddenSize);
+        else
+            sum = clippedDot(us, 0) + clippedDot(them, hiddenSize);
+
+        return (int)(((long)sum + outputBias) * SCALE / (QA * QB));
+    }
+
+    private int clippedDot(short[] accumulator, int weightOffset)
+    {
+        int sum = 0;
+        for (int i = 0; i < hiddenSize; i++)
+        {
+            int value = Math.max(0, Math.min(QA, accumulator[i]));
+            sum += value * outputWeights[weightOffset + i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,85 @@
+package fork.engine;
+
+// The hidden layer of the network for both sides, kept as a stack with one
+// entry per move made on a position. Making a move copies the top entry and
+// applies the inputs the move turned on and off, and unmaking a move just
+// pops it, so the hidden layer never has to be recomputed from scratch
+// during a search. Entries are allocated the first time they're reached.
+public class NNUEAccumulator
+{
+    public final NNUE network;
+
+    private final short[][] white = new short[Position.MAX_HISTORY + 1][];
+    private final short[][] black = new short[Position.MAX_HISTORY + 1][];
+    private int top;
+
+    public NNUEAccumulator(NNUE network)
+    {
+        this.network = network;
+        white[0] = new short[network.hiddenSize];
+        black[0] = new short[network.hiddenSize];
+    }
+
+    // Recompute the hidden layer from the pieces on the board, and make it the
+    // bottom of the stack.
+    public void refresh(Position pos)
+    {
+        top = 0;
+        System.arraycopy(network.hiddenBiases, 0, white[0], 0, network.hiddenSize);
+        System.arraycopy(network.hiddenBiases, 0, black[0], 0, network.hiddenSize);
+
+        for (byte sq = 0; sq < 64; sq++)
+        {
+            byte pieceType = pos.getPieceType(sq);
+            if (pieceType != Position.NO_TYPE)
+                addPiece(pos.getPieceColor(sq), pieceType, sq);
+        }
+    }
+
+    // Make the current hidden layer the bottom of the stack, dropping the
+    // entries for moves that will never be unmade.
+    public void rebase()
+    {
+        if (top == 0)
+            return;
+
+        System.arraycopy(white[top], 0, white[0], 0, network.hiddenSize);
+        System.arraycopy(black[top], 0, black[0], 0, network.hiddenSize);
+        top = 0;
+    }
+
+    public void push()
+    {
+        if (white[top + 1] == null)
+        {
+            white[top + 1] = new short[network.hiddenSize];
+            black[top + 1] = new short[network.hiddenSize];
+        }
+
+        System.arraycopy(white[top], 0, white[top + 1], 0, network.hiddenSize);
+        System.arraycopy(black[top], 0, black[top + 1], 0, network.hiddenSize);
+        top++;
+    }
+
+    public void pop()
+    {
+        top--;
+    }
+
+    public void addPiece(byte pieceColor, byte pieceType, byte sq)
+    {
+        network.addInput(white[top], NNUE.inputIndex(Position.WHITE, pieceColor, pieceType, sq));
+        network.addInput(black[top], NNUE.inputIndex(Position.BLACK, pieceColor, pieceType, sq));
+    }
+
+    public void removePiece(byte pieceColor, byte pieceType, byte sq)
+    {
+        network.subInput(white[top], NNUE.inputIndex(Position.WHITE, pieceColor, pieceType, sq));
+        network.subInput(black[top], NNUE.inputIndex(Position.BLACK, pieceColor, pieceType, sq));
+    }
+
+    public int evaluate(byte stm)
+    {
+        return stm == Position.WHITE ? network.evaluate(white[top], black[top]) : network.evaluate(black[top], white[top]);
+    }
+}
@@ -0,0 +1,61 @@
+package fork.engine;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD versions of the network's inner loops. This class is only loaded when
+// NNUE.VECTOR_API_AVAILABLE is set, and the length passed in must be a
+// multiple of SHORT_LANES.
+final class NNUEVector
+{
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    static final int SHORT_LANES = SHORTS.length();
+
+    static void add(short[] accumulator, short[] weights, int offset, int length)
+    {
+        for (int i = 0; i < length; i += SHORT_LANES)
+        {
+            ShortVector acc = ShortVector.fromArray(SHORTS, accumulator, i);
+            ShortVector weight = ShortVector.fromArray(SHORTS, weights, offset + i);
+            acc.add(weight).intoArray(accumulator, i);
+        }
+    }
+
+    static void sub(short[] accumulator, short[] weights, int offset, int length)
+    {
+        for (int i = 0; i < length; i += SHORT_LANES)
+        {
+            ShortVector acc = ShortVector.fromArray(SHORTS, accumulator, i);
+            ShortVector weight = ShortVector.fromArray(SHORTS, weights, offset + i);
+            acc.sub(weight).intoArray(accumulator, i);
+        }
+    }
+
+    // The dot product of the accumulator, clipped to [0, max], with the
+    // weights. The products are taken in 32 bits, since they overflow 16.
+    static int clippedDot(short[] accumulator, short[] weights, int offset, int max, int length)
+    {
+        IntVector sum = IntVector.zero(INTS);
+
+        for (int i = 0; i < length; i += SHORT_LANES)
+        {
+            ShortVector acc = ShortVector.fromArray(SHORTS, accumulator, i)
+                .lanewise(VectorOperators.MAX, (short)0)
+                .lanewise(VectorOperators.MIN, (short)max);
+            ShortVector weight = ShortVector.fromArray(SHORTS, weights, offset + i);
+
+            for (int part = 0; part < 2; part++)
+            {
+                IntVector accInts = (IntVector)acc.convertShape(VectorOperators.S2I, INTS, part);
+                IntVector weightInts = (IntVector)weight.convertShape(VectorOperators.S2I, INTS, part);
+                sum = sum.add(accInts.mul(weightInts));
+            }
+        }
+
+        return sum.reduceLanes(VectorOperators.ADD);
+    }
+}
@@ -0,0 +1,92 @@
+package fork.engine;
+
+import java.util.Arrays;
+
+// A small direct-mapped cache of pawn structure evaluations, keyed by the
+// pawn hash of a position. Pawns move far less often than the other pieces,
+// so nearly every evaluation in a search finds its pawn structure already
+// scored here. Each search thread has its own table, so no synchronization is
+// needed.
+//
+// A slot that has never been written has a key of zero, which is also the pawn
+// hash of a position without pawns. That's harmless, since an empty pawn
+// structure scores zero and has no passed pawns.
+public class PawnTable
+{
+    public static final int NO_ENTRY = -1;
+
+    private static final int NUM_ENTRIES = 1 << 14;
+
+    private final long[] keys         = new long[NUM_ENTRIES];
+    private final int[] mgScores      = new int[NUM_ENTRIES];
+    private final int[] egScores      = new int[NUM_ENTRIES];
+    private final long[] passedPawns  = new long[NUM_ENTRIES];
+
+    private long probes;
+    private long hits;
+
+    public void clear()
+    {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(mgScores, 0);
+        Arrays.fill(egScores, 0);
+        Arrays.fill(passedPawns, 0L);
+        resetStats();
+    }
+
+    public void resetStats()
+    {
+        probes = hits = 0L;
+    }
+
+    // Return the index of the entry for the given pawn hash, or NO_ENTRY if
+    // it isn't in the table.
+    public int probe(long pawnHash)
+    {
+        int index = (int)(pawnHash & (NUM_ENTRIES - 1));
+        probes++;
+
+        if (keys[index] != pawnHash)
+            return NO_ENTRY;
+
+        hits++;
+        return index;
+    }
+
+    public int store(long pawnHash, int mgScore, int egScore, long passed)
+    {
+        int index = (int)(pawnHash & (NUM_ENTRIES - 1));
+
+        keys[index]        = pawnHash;
+        mgScores[index]    = mgScore;
+        egScores[index]    = egScore;
+        passedPawns[index] = passed;
+
+        return index;
+    }
+
+    public int getMgScore(int index)
+    {
+        return mgScores[index];
+    }
+
+    public int getEgScore(int index)
+    {
+        return egScores[index];
+    }
+
+    public long getPassedPawns(int index)
+    {
+        return passedPawns[index];
+    }
+
+    public long getProbes()
+    {
+        return probes;
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+}
@@ -0,0 +1,166 @@
+package fork.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// A perft driver for validating the move generator on deep searches. The
+// moves at the root are split across a pool of threads, and subtree counts
+// can optionally be cached in a hash table shared by every thread and keyed
+// by the position and the depth left to search.
+public class Perft
+{
+    public static final int MAX_HASH_SIZE_MB = 4096;
+
+    private final int numThreads;
+
+    // The perft hash is lock-free in the same way as the transposition
+    // table: the key slot holds the hash XOR'd with the data word, so torn
+    // entries are never trusted. The data word holds the node count above
+    // the lowest eight bits, and the depth in them.
+    private final long[] keys;
+    private final long[] entries;
+    private final long indexMask;
+
+    public Perft(int numThreads, int hashSizeInMB)
+    {
+        this.numThreads = Math.max(1, numThreads);
+
+        if (hashSizeInMB > 0)
+        {
+            hashSizeInMB = Math.min(MAX_HASH_SIZE_MB, hashSizeInMB);
+            long numEntries = Long.highestOneBit(((long)hashSizeInMB * 1024 * 1024) / 16);
+            keys = new long[(int)numEntries];
+            entries = new long[(int)numEntries];
+            indexMask = numEntries - 1;
+        }
+        else
+        {
+            keys = null;
+            entries = null;
+            indexMask = 0L;
+        }
+    }
+
+    // Count the leaf nodes below each root move, and print the count for each
+    // move, followed by the total, the time taken, and the nodes per second.
+    public long divide(Position pos, int depth)
+    {
+        long startTime = System.nanoTime();
+
+        MoveList rootMoves = MoveGen.genAllMoves(pos);
+        long[] moveCounts = new long[rootMoves.count];
+
+        if (depth <= 1)
+        {
+            for (int i = 0; i < rootMoves.count; i++)
+                moveCounts[i] = depth == 1 ? 1L : 0L;
+        }
+        else
+        {
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (int i = 0; i < rootMoves.count; i++)
+            {
+                int move = rootMoves.moves[i];
+                Position movePos = pos.copy();
+                tasks.add(() -> {
+                    movePos.makeMove(move);
+                    return perft(movePos, depth - 1, newMoveLists(depth - 1));
+                });
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try
+            {
+                List<Future<Long>> results = pool.invokeAll(tasks);
+                for (int i = 0; i < results.size(); i++)
+                    moveCounts[i] = results.get(i).get();
+            }
+            catch (InterruptedException | ExecutionException e)
+            {
+                throw new RuntimeException("perft interrupted", e);
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        long totalNodes = 0L;
+        for (int i = 0; i < rootMoves.count; i++)
+        {
+            System.out.printf("%s: %d\n", Move.toString(rootMoves.moves[i]), moveCounts[i]);
+            totalNodes += moveCounts[i];
+        }
+
+        long elapsedMs = (System.nanoTime() - startTime) / 1_000_000;
+        System.out.printf("\nNodes searched: %d\n", totalNodes);
+        System.out.printf("Time: %d ms\n", elapsedMs);
+        System.out.printf("NPS: %d\n\n", (totalNodes * 1000) / (elapsedMs + 1));
+
+        return totalNodes;
+    }
+
+    private long perft(Position pos, int depth, MoveList[] moveLists)
+    {
+        if (depth == 0)
+            return 1L;
+
+        if (depth > 1 && keys != null)
+        {
+            long nodes = probe(pos.hash, depth);
+            if (nodes >= 0)
+                return nodes;
+        }
+
+        MoveList moves = moveLists[depth];
+        MoveGen.genAllMoves(pos, moves);
+
+        if (depth == 1)
+            return moves.count;
+
+        long nodes = 0L;
+        for (int i = 0; i < moves.count; i++)
+        {
+            int move = moves.moves[i];
+            pos.makeMove(move);
+            nodes += perft(pos, depth - 1, moveLists);
+            pos.unmakeMove(move);
+        }
+
+        if (keys != null)
+            store(pos.hash, depth, nodes);
+
+        return nodes;
+    }
+
+    private long probe(long hash, int depth)
+    {
+        int index = (int)(hash & indexMask);
+        long entry = entries[index];
+
+        if ((keys[index] ^ entry) == hash && (entry & 0xff) == depth)
+            return entry >>> 8;
+        return -1L;
+    }
+
+    private void store(long hash, int depth, long nodes)
+    {
+        int index = (int)(hash & indexMask);
+        long entry = (nodes << 8) | depth;
+
+        keys[index] = hash ^ entry;
+        entries[index] = entry;
+    }
+
+    private static MoveList[] newMoveLists(int depth)
+    {
+        MoveList[] moveLists = new MoveList[depth + 1];
+        for (int i = 0; i <= depth; i++)
+            moveLists[i] = new MoveList();
+        return moveLists;
+    }
+}
@@ -32,15 +32,54 @@ public class Position {
     public final static String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
     public final static String KIWIPETE_FEN = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
 
+    // Enough room for the moves of a long game plus the deepest line a
+    // search will ever play out on top of it.
+    public final static int MAX_HISTORY = 2048;
+
     public long[] pieces;
     public long[] sides;
-    public byte rights, stm , epSq, rule50;
+
+    // A redundant square-centric copy of the bitboards, so finding the piece on a
+    // given square is a single array load. Each entry holds the piece's type in
+    // the low three bits and its color in the next two.
+    public byte[] board;
+    public byte rights, stm , epSq;
+    public int rule50;
+    public long hash;
+
+    // A Zobrist key of just the pawns, used to look up the pawn structure
+    // evaluation in the pawn table.
+    public long pawnHash;
+
+    // The material and piece-square scores for the middlegame and endgame from
+    // white's point of view, and the game phase, kept up to date as pieces
+    // are put on and taken off the board.
+    public int mgScore, egScore, phase;
+
+    // The hidden layer of the evaluation network, or null when the network
+    // isn't being used.
+    public NNUEAccumulator accumulator;
+
+    // The undo stack. Before a move is made, the state it can't be
+    // recovered from is saved at historyPly, so unmakeMove can restore it
+    // without the search having to copy the position.
+    private byte[] capturedHistory = new byte[MAX_HISTORY];
+    private byte[] rightsHistory   = new byte[MAX_HISTORY];
+    private byte[] epSqHistory     = new byte[MAX_HISTORY];
+    private int[]  rule50History   = new int[MAX_HISTORY];
+    private long[] hashHistory     = new long[MAX_HISTORY];
+    private int historyPly;
 
     public Position() 
     {
         pieces = new long[7];
         sides = new long[3];
-        rights = stm = rule50 = epSq = 0;
+        board = new byte[64];
+        rights = stm = epSq = 0;
+        rule50 = 0;
+        hash = pawnHash = 0L;
+        mgScore = egScore = phase = 0;
+        historyPly = 0;
     }
 
     public Position(String fen) 
@@ -51,7 +90,12 @@ public class Position {
     public void loadFEN(String fen) {
         pieces = new long[7];
         sides = new long[3];
-        rights = stm = rule50 = epSq = 0;
+        board = new byte[64];
+        rights = stm = epSq = 0;
+        rule50 = 0;
+        hash = pawnHash = 0L;
+        mgScore = egScore = phase = 0;
+        historyPly = 0;
 
         String[] fields = fen.split("\\s");
         String piecePlacement    = fields[0];
@@ -85,7 +129,7 @@ public class Position {
 
         stm = activeColor.equals("w") ? WHITE : BLACK;
         epSq = activeEPSq.equals("-") ? Square.NO_SQ : Square.coordToSq(activeEPSq);
-        rule50 = Byte.parseByte(halfMoveClock);
+        rule50 = Integer.parseInt(halfMoveClock);
 
         for (int i = 0; i < castlingRights.length(); i++) 
         {
@@ -97,6 +141,21 @@ public class Position {
                 case 'q': rights |= BLACK_QS_RIGHT; break;
             }
         }
+
+        hash ^= Zobrist.CASTLING_KEYS[rights] ^ Zobrist.EP_KEYS[epSq];
+        if (stm == BLACK)
+            hash ^= Zobrist.SIDE_KEY;
+
+        if (accumulator != null)
+            accumulator.refresh(this);
+    }
+
+    // Start or stop keeping the evaluation network's hidden layer up to date.
+    public void setNetwork(NNUE network)
+    {
+        accumulator = network == null ? null : new NNUEAccumulator(network);
+        if (accumulator != null)
+            accumulator.refresh(this);
     }
 
     public Position copy() 
@@ -105,16 +164,34 @@ public class Position {
 
         System.arraycopy(this.pieces, 0, newPos.pieces, 0, this.pieces.length);
         System.arraycopy(this.sides, 0, newPos.sides, 0, this.sides.length);
+        System.arraycopy(this.board, 0, newPos.board, 0, this.board.length);
 
         newPos.rights = this.rights;
         newPos.stm    = this.stm;
         newPos.epSq   = this.epSq;
         newPos.rule50 = this.rule50;
+        newPos.hash   = this.hash;
+        newPos.pawnHash = this.pawnHash;
+
+        newPos.mgScore = this.mgScore;
+        newPos.egScore = this.egScore;
+        newPos.phase   = this.phase;
+
+        System.arraycopy(this.capturedHistory, 0, newPos.capturedHistory, 0, this.historyPly);
+        System.arraycopy(this.rightsHistory, 0, newPos.rightsHistory, 0, this.historyPly);
+        System.arraycopy(this.epSqHistory, 0, newPos.epSqHistory, 0, this.historyPly);
+        System.arraycopy(this.rule50History, 0, newPos.rule50History, 0, this.historyPly);
+        System.arraycopy(this.hashHistory, 0, newPos.hashHistory, 0, this.historyPly);
+        newPos.historyPly = this.historyPly;
+
+        if (this.accumulator != null)
+            newPos.setNetwork(this.accumulator.network);
         
         return newPos;
     }
 
-    public boolean makeMove(int move, boolean inCheck, byte currStmKingSq) 
+    // Make the given move, which is assumed to be legal.
+    public void makeMove(int move) 
     {
         byte from     = Move.getFromSq(move);
         byte to       = Move.getToSq(move);
@@ -123,12 +200,24 @@ public class Position {
 
         byte movedType  = getPieceType(from);
         byte movedColor = getPieceColor(from);
+
+        checkHistorySpace();
+        capturedHistory[historyPly] = NO_TYPE;
+        rightsHistory[historyPly]   = rights;
+        epSqHistory[historyPly]     = epSq;
+        rule50History[historyPly]   = rule50;
+        hashHistory[historyPly]     = hash;
+
+        if (accumulator != null)
+            accumulator.push();
         
+        // Hash out the old castling rights and en passant square here, and
+        // hash in their new values once the move has been made.
+        hash ^= Zobrist.CASTLING_KEYS[rights] ^ Zobrist.EP_KEYS[epSq];
+
         rule50++;
         epSq = Square.NO_SQ;
 
-        long pinned = getPinnedPieces(stm);
-
         switch (moveType)
         {
             case Move.QUIET:
@@ -159,6 +248,8 @@ public class Position {
                     {
                         byte capturedType  = getPieceType(to);
                         byte capturedColor = getPieceColor(to);
+                        capturedHistory[historyPly] = capturedType;
+
                         clearPiece(capturedType, capturedColor, to);
                         clearPiece(movedType, movedColor, from);
                         putPiece(movedType, movedColor, to);
@@ -171,6 +262,7 @@ public class Position {
                 {
                     byte capturedType  = getPieceType(to);
                     byte capturedColor = getPieceColor(to);
+                    capturedHistory[historyPly] = capturedType;
 
                     clearPiece(movedType, movedColor, from);
 
@@ -186,121 +278,232 @@ public class Position {
                 clearPiece(movedType, movedColor, from);
                 putPiece(movedType, movedColor, to);
 
-                byte rookFrom = 0, rookTo = 0;
-                byte firstSqCrossed = 0, secondSqCrossed = 0;
-                switch(to) 
-                {
-                    case Square.G1: 
-                        rookFrom = Square.H1; rookTo = Square.F1;
-                        firstSqCrossed = Square.F1; secondSqCrossed = Square.G1;
-                        break;
-                    case Square.C1: 
-                        rookFrom = Square.A1; rookTo = Square.D1;
-                        firstSqCrossed = Square.D1; secondSqCrossed = Square.C1;
-                        break;
-                    case Square.G8: 
-                        rookFrom = Square.H8; rookTo = Square.F8;
-                        firstSqCrossed = Square.F8; secondSqCrossed = Square.G8;
-                        break;
-                    case Square.C8: 
-                        rookFrom = Square.A8; rookTo = Square.D8;
-                        firstSqCrossed = Square.D8; secondSqCrossed = Square.C8;
-                        break;
-                }
-
-                if (MoveGen.sqIsAttacked(this, movedColor, from)             || 
-                    MoveGen.sqIsAttacked(this, movedColor, firstSqCrossed)   || 
-                    MoveGen.sqIsAttacked(this, movedColor, secondSqCrossed))
-                {
-                    return false;
-                }
-
-                clearPiece(ROOK, movedColor, rookFrom);
-                putPiece(ROOK, movedColor, rookTo);
+                clearPiece(ROOK, movedColor, getCastlingRookFrom(to));
+                putPiece(ROOK, movedColor, getCastlingRookTo(to));
                 break;
         }
 
         rights = (byte)(rights & SPOILERS[from] & SPOILERS[to]);
         stm = flipColor(stm);
+        hash ^= Zobrist.CASTLING_KEYS[rights] ^ Zobrist.EP_KEYS[epSq] ^ Zobrist.SIDE_KEY;
+        historyPly++;
+    }
+
+    // Take back the last move made, which must be the move given.
+    public void unmakeMove(int move)
+    {
+        historyPly--;
+        stm = flipColor(stm);
+
+        byte from     = Move.getFromSq(move);
+        byte to       = Move.getToSq(move);
+        byte moveType = Move.getMoveType(move);
+        byte flag     = Move.getFlag(move);
+
+        byte enemyColor   = flipColor(stm);
+        byte capturedType = capturedHistory[historyPly];
 
-        if (inCheck ||
-            from == currStmKingSq ||
-            Bitboard.bitSet(pinned, from) || 
-            (moveType == Move.ATTACK && flag == Move.ATTACK_EP)) 
+        // The hidden layer from before the move is still on the accumulator's
+        // stack, so it's popped rather than updated as the pieces move back.
+        NNUEAccumulator savedAccumulator = accumulator;
+        accumulator = null;
+
+        switch (moveType)
         {
-            byte kingSq = Bitboard.findMSBPos(pieces[KING] & sides[flipColor(stm)]);
-            return !MoveGen.sqIsAttacked(this, flipColor(stm), kingSq);
+            case Move.QUIET:
+                {
+                    byte movedType = getPieceType(to);
+                    clearPiece(movedType, stm, to);
+                    putPiece(movedType, stm, from);
+                }
+                break;
+            case Move.ATTACK:
+                {
+                    byte movedType = getPieceType(to);
+                    clearPiece(movedType, stm, to);
+                    putPiece(movedType, stm, from);
+
+                    if (flag == Move.ATTACK_EP)
+                        putPiece(PAWN, enemyColor, (byte)(stm == WHITE ? to - 8 : to + 8));
+                    else
+                        putPiece(capturedType, enemyColor, to);
+                }
+                break;
+            case Move.PROMOTION:
+                clearPiece((byte)(flag + 2), stm, to);
+                putPiece(PAWN, stm, from);
+
+                if (capturedType != NO_TYPE)
+                    putPiece(capturedType, enemyColor, to);
+                break;
+            case Move.CASTLE:
+                clearPiece(KING, stm, to);
+                putPiece(KING, stm, from);
+                clearPiece(ROOK, stm, getCastlingRookTo(to));
+                putPiece(ROOK, stm, getCastlingRookFrom(to));
+                break;
         }
 
-        return true;
+        rights = rightsHistory[historyPly];
+        epSq   = epSqHistory[historyPly];
+        rule50 = rule50History[historyPly];
+        hash   = hashHistory[historyPly];
+
+        accumulator = savedAccumulator;
+        if (accumulator != null)
+            accumulator.pop();
     }
 
-    public byte getPieceType(int sq) 
+    // Pass the turn to the other side without moving, for null move pruning.
+    // The pieces don't change, so neither does the network's hidden layer.
+    // The fifty move counter is reset, so the positions before a null move,
+    // which can't actually be reached again, aren't counted as repetitions.
+    public void makeNullMove()
     {
-        long sqBB = Bitboard.MSB >>> sq;
-        int shift = 63 - sq;
-
-        long kingBB   = (sqBB & pieces[KING]) >>> shift;
-        long queenBB  = (sqBB & pieces[QUEEN]) >>> shift;
-        long rookBB   = (sqBB & pieces[ROOK]) >>> shift;
-        long bishopBB = (sqBB & pieces[BISHOP]) >>> shift;
-        long knightBB = (sqBB & pieces[KNIGHT]) >>> shift;
-        long pawnBB   = (sqBB & pieces[PAWN]) >>> shift;
-
-        return (byte)(
-            kingBB*KING | queenBB*QUEEN | rookBB*ROOK | bishopBB*BISHOP | knightBB*KNIGHT | pawnBB*PAWN
-        ); 
+        checkHistorySpace();
+        capturedHistory[historyPly] = NO_TYPE;
+        rightsHistory[historyPly]   = rights;
+        epSqHistory[historyPly]     = epSq;
+        rule50History[historyPly]   = rule50;
+        hashHistory[historyPly]     = hash;
+
+        hash ^= Zobrist.EP_KEYS[epSq] ^ Zobrist.SIDE_KEY;
+        epSq = Square.NO_SQ;
+        rule50 = 0;
+        stm = flipColor(stm);
+        historyPly++;
     }
 
-    public byte getPieceColor(int sq) 
+    public void unmakeNullMove()
     {
-        long sqBB = Bitboard.MSB >>> sq;
-        int shift = 63 - sq;
+        historyPly--;
+        stm = flipColor(stm);
 
-        long whiteBB  = (sqBB & sides[WHITE]) >>> shift;
-        long blackBB  = (sqBB & sides[BLACK]) >>> shift;
-  
-        return (byte)(whiteBB*WHITE | blackBB*BLACK); 
+        epSq   = epSqHistory[historyPly];
+        rule50 = rule50History[historyPly];
+        hash   = hashHistory[historyPly];
     }
 
-    private long getPinnedPieces(byte usColor) 
+    private void checkHistorySpace()
     {
-        byte kingSq = Bitboard.findMSBPos(pieces[KING] & sides[usColor]);
-
-        long usBB = sides[usColor];
-        long enemyBB = sides[flipColor(usColor)];
+        if (historyPly == MAX_HISTORY)
+            throw new IllegalStateException("move history is full after " + MAX_HISTORY + " plies");
+    }
 
-        long enemyQueensAndRooks = enemyBB & (pieces[QUEEN] | pieces[ROOK]);
-        long enemyQueensAndBishops = enemyBB & (pieces[QUEEN] | pieces[BISHOP]);
+    // Forget the undo history from before the last capture or pawn move. Those
+    // moves are never taken back, and the positions before them can't come up
+    // again, so after each move of a game is replayed only the rest needs to
+    // be kept, however long the game gets.
+    public void discardUnreachableHistory()
+    {
+        int kept = Math.min(rule50, historyPly);
+        int start = historyPly - kept;
 
-        long cardinalRays = MoveGen.genRookMovesBB(kingSq, enemyBB);
-        long intercardinalRays = MoveGen.genBishopMovesBB(kingSq, enemyBB);
+        if (start > 0)
+        {
+            System.arraycopy(capturedHistory, start, capturedHistory, 0, kept);
+            System.arraycopy(rightsHistory, start, rightsHistory, 0, kept);
+            System.arraycopy(epSqHistory, start, epSqHistory, 0, kept);
+            System.arraycopy(rule50History, start, rule50History, 0, kept);
+            System.arraycopy(hashHistory, start, hashHistory, 0, kept);
+            historyPly = kept;
+        }
 
-        long potentialPinners = (enemyQueensAndRooks & cardinalRays) | 
-                                (enemyQueensAndBishops & intercardinalRays);
-        long pinned = 0L;
+        if (accumulator != null)
+            accumulator.rebase();
+    }
 
-        while (potentialPinners != 0)
+    // Whether the position is drawn by the fifty move rule, or has occurred
+    // before in the game or the line being searched. The hashes of earlier
+    // positions are on the undo stack, which the UCI position command fills
+    // by playing the game's moves. No position from before the last capture
+    // or pawn move can come up again, so the scan back stops there, and only
+    // positions with the same side to move are compared.
+    public boolean isDraw()
+    {
+        // A checkmate on the move that completes the fifty takes precedence.
+        // This is rare enough that generating the moves here doesn't matter.
+        if (rule50 >= 100)
         {
-            byte pinnerSq = Bitboard.findMSBPos(potentialPinners);
-            potentialPinners = Bitboard.clearBit(potentialPinners, pinnerSq);
+            byte kingSq = Bitboard.findMSBPos(pieces[KING] & sides[stm]);
+            return !MoveGen.sqIsAttacked(this, stm, kingSq) || MoveGen.genAllMoves(this).count > 0;
+        }
 
-            pinned |= usBB & (Tables.RAYS_BETWEEN[kingSq][pinnerSq]);
+        int limit = Math.min(rule50, historyPly);
+        for (int i = 2; i <= limit; i += 2)
+        {
+            if (hashHistory[historyPly - i] == hash)
+                return true;
         }
+        return false;
+    }
 
-        return pinned;
+    private static byte getCastlingRookFrom(byte kingTo)
+    {
+        return switch(kingTo)
+        {
+            case Square.G1 -> Square.H1;
+            case Square.C1 -> Square.A1;
+            case Square.G8 -> Square.H8;
+            default        -> Square.A8;
+        };
+    }
+
+    private static byte getCastlingRookTo(byte kingTo)
+    {
+        return switch(kingTo)
+        {
+            case Square.G1 -> Square.F1;
+            case Square.C1 -> Square.D1;
+            case Square.G8 -> Square.F8;
+            default        -> Square.D8;
+        };
+    }
+
+    public byte getPieceType(int sq) 
+    {
+        return (byte)(board[sq] & 0x7);
+    }
+
+    public byte getPieceColor(int sq) 
+    {
+        return (byte)(board[sq] >>> 3);
     }
 
     private void putPiece(byte pieceType, byte pieceColor, byte sq) 
     {
         pieces[pieceType] = Bitboard.setBit(pieces[pieceType], sq);
         sides[pieceColor] = Bitboard.setBit(sides[pieceColor], sq);
+        board[sq] = (byte)(pieceColor << 3 | pieceType);
+        hash ^= Zobrist.PIECE_KEYS[pieceColor][pieceType][sq];
+
+        if (pieceType == PAWN)
+            pawnHash ^= Zobrist.PIECE_KEYS[pieceColor][PAWN][sq];
+
+        mgScore += Evaluation.MG_SCORES[pieceColor][pieceType][sq];
+        egScore += Evaluation.EG_SCORES[pieceColor][pieceType][sq];
+        phase   += Evaluation.PHASE_VALUES[pieceType];
+
+        if (accumulator != null)
+            accumulator.addPiece(pieceColor, pieceType, sq);
     }
 
     private void clearPiece(byte pieceType, byte pieceColor, byte sq) 
     {
         pieces[pieceType] = Bitboard.clearBit(pieces[pieceType], sq);
         sides[pieceColor] = Bitboard.clearBit(sides[pieceColor], sq);
+        board[sq] = NO_TYPE;
+        hash ^= Zobrist.PIECE_KEYS[pieceColor][pieceType][sq];
+
+        if (pieceType == PAWN)
+            pawnHash ^= Zobrist.PIECE_KEYS[pieceColor][PAWN][sq];
+
+        mgScore -= Evaluation.MG_SCORES[pieceColor][pieceType][sq];
+        egScore -= Evaluation.EG_SCORES[pieceColor][pieceType][sq];
+        phase   -= Evaluation.PHASE_VALUES[pieceType];
+
+        if (accumulator != null)
+            accumulator.removePiece(pieceColor, pieceType, sq);
     }
 
     public String toString() 
@@ -0,0 +1,125 @@
+package fork.engine;
+
+// Static exchange evaluation: work out whether a capture wins material once
+// every piece attacking the target square has joined in, with each side
+// always recapturing with its least valuable piece and free to stop when
+// recapturing would lose material. Sliders hidden behind a piece that
+// captures are found as it leaves its square, so batteries are counted.
+// Pins are ignored.
+public class SEE
+{
+    public static final int[] PIECE_VALUES = {
+        0,
+        Evaluation.PAWN_VALUE,
+        Evaluation.KNIGHT_VALUE,
+        Evaluation.BISHOP_VALUE,
+        Evaluation.ROOK_VALUE,
+        Evaluation.QUEEN_VALUE,
+        0,
+    };
+
+    // Return true if the exchange started by the given capture wins at least
+    // threshold centipawns for the side making it. Promotions and castling are
+    // treated as winning nothing.
+    public static boolean see(Position pos, int move, int threshold)
+    {
+        byte moveType = Move.getMoveType(move);
+        if (moveType == Move.PROMOTION || moveType == Move.CASTLE)
+            return threshold <= 0;
+
+        byte from = Move.getFromSq(move);
+        byte to   = Move.getToSq(move);
+        byte flag = Move.getFlag(move);
+
+        boolean isEP = moveType == Move.ATTACK && flag == Move.ATTACK_EP;
+        byte capturedType = isEP ? Position.PAWN : pos.getPieceType(to);
+
+        // Even if the piece that captured is taken straight back for free,
+        // we're still up the value of what it took.
+        int swap = PIECE_VALUES[capturedType] - threshold;
+        if (swap < 0)
+            return false;
+
+        // And if we'd still be ahead after losing the piece that captured,
+        // there's nothing the other side can do about it.
+        byte movedType = pos.getPieceType(from);
+        swap = valueOf(movedType) - swap;
+        if (swap <= 0)
+            return true;
+
+        long occupied = (pos.sides[Position.WHITE] | pos.sides[Position.BLACK]) ^ (Bitboard.MSB >>> from) ^ (Bitboard.MSB >>> to);
+        if (isEP)
+            occupied ^= Tables.PAWN_PUSHES[Position.flipColor(pos.stm)][to];
+
+        long diagonalSliders = pos.pieces[Position.BISHOP] | pos.pieces[Position.QUEEN];
+        long straightSliders = pos.pieces[Position.ROOK] | pos.pieces[Position.QUEEN];
+        long attackers = attackersTo(pos, to, occupied);
+
+        byte stm = pos.stm;
+        boolean result = true;
+
+        while (true)
+        {
+            stm = Position.flipColor(stm);
+            attackers &= occupied;
+
+            long stmAttackers = attackers & pos.sides[stm];
+            if (stmAttackers == 0)
+                break;
+
+            result = !result;
+
+            byte attackerType = leastValuableAttacker(pos, stmAttackers);
+
+            // A king can only recapture if nothing is left to take it back.
+            if (attackerType == Position.KING)
+                return (attackers & pos.sides[Position.flipColor(stm)]) != 0 ? !result : result;
+
+            swap = PIECE_VALUES[attackerType] - swap;
+            if (swap < (result ? 1 : 0))
+                break;
+
+            long attackerBB = stmAttackers & pos.pieces[attackerType];
+            occupied ^= Bitboard.MSB >>> Bitboard.findMSBPos(attackerBB);
+
+            if (attackerType == Position.PAWN || attackerType == Position.BISHOP || attackerType == Position.QUEEN)
+                attackers |= MoveGen.genBishopMovesBB(to, occupied) & diagonalSliders;
+            if (attackerType == Position.ROOK || attackerType == Position.QUEEN)
+                attackers |= MoveGen.genRookMovesBB(to, occupied) & straightSliders;
+        }
+
+        return result;
+    }
+
+    // Find the pieces of both colors attacking the given square, treating the
+    // squares in occupied as the only ones with pieces on them.
+    private static long attackersTo(Position pos, byte sq, long occupied)
+    {
+        long queens = pos.pieces[Position.QUEEN];
+        long pawns  = pos.pieces[Position.PAWN];
+
+        return (Tables.PAWN_ATTACKS[Position.BLACK][sq] & pawns & pos.sides[Position.WHITE]) |
+               (Tables.PAWN_ATTACKS[Position.WHITE][sq] & pawns & pos.sides[Position.BLACK]) |
+               (Tables.KNIGHT_MOVES[sq] & pos.pieces[Position.KNIGHT])                        |
+               (Tables.KING_MOVES[sq] & pos.pieces[Position.KING])                            |
+               (MoveGen.genBishopMovesBB(sq, occupied) & (pos.pieces[Position.BISHOP] | queens)) |
+               (MoveGen.genRookMovesBB(sq, occupied) & (pos.pieces[Position.ROOK] | queens));
+    }
+
+    private static byte leastValuableAttacker(Position pos, long attackers)
+    {
+        for (byte pieceType = Position.PAWN; pieceType <= Position.KING; pieceType++)
+        {
+            if ((attackers & pos.pieces[pieceType]) != 0)
+                return pieceType;
+        }
+        return Position.NO_TYPE;
+    }
+
+    // The king can never actually be captured, so it's worth more than
+    // anything it could win.
+    private static int valueOf(byte pieceType)
+    {
+        return pieceType == Position.KING ? 20000 : PIECE_VALUES[pieceType];
+    }
+}
@@ -1,76 +1,157 @@
 package fork.engine;
 
+import java.util.Arrays;
+
 public class Search implements Runnable
 {
     public final static int MAX_PLY              = 100;
     public final static int INFINITY             = 10000;
     private final static int CHECKMATE_THRESHOLD = 9000;
-    private final static int MAX_PV_LENGTH       = 50;
+    public final static int MAX_THREADS          = 256;
 
     public Position pos;
     public Timer timer;
+    public TransTable tt;
+    public EvalCache evalCache;
     private long totalNodes;
     private long currSearchNodeCnt;
-    private int[][] MVV_LVA = new int[][] {
-        {0, 0, 0, 0, 0, 0},
-        {0, 30, 31, 32, 33, 34},   // attacking pawn
-        {0, 25, 26, 27, 28, 29},   // attacking knight
-        {0, 20, 21, 22, 23, 24},   // attacking bishop
-        {0, 15, 16, 17, 18, 19},   // attacking rook
-        {0, 10, 11, 12, 13, 14},   // attacking queen
-        {0, 5,  6,  7,  8,  9 },        // attacking king
-    };
 
-    private class PVLine 
+    // The nodes of the last search that were quiescence search nodes.
+    private long qNodeCnt;
+
+    // Lazy SMP: helper searches run the same iterative deepening loop on their
+    // own copy of the position, and only talk to the main search through the
+    // shared transposition table and timer.
+    private final int threadID;
+    private Search[] helpers = new Search[0];
+
+    // Buffers reused from one node to the next, so the search itself never
+    // allocates. Each ply gets its own move picker, and the principal variation
+    // found from each ply is kept in one row of a triangular table.
+    private MovePicker[] movePickers = new MovePicker[MAX_PLY + 1];
+    private int[][] pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private int[] pvLength = new int[MAX_PLY + 1];
+
+    // Each thread caches its own pawn structure evaluations.
+    private PawnTable pawnTable = new PawnTable();
+    private long evalCacheHits;
+    private long evalCacheMisses;
+
+    // The two most recent quiet moves to cause a beta cutoff at each ply.
+    private int[][] killers = new int[MAX_PLY + 1][2];
+
+    // Butterfly history: how often each quiet move, by side, from square, and
+    // to square, has caused a beta cutoff, weighted by depth. The quiet moves
+    // searched at each ply are kept so the ones that failed to cut off can be
+    // penalized.
+    private static final int MAX_HISTORY_SCORE = 16384;
+    private int[][][] history = new int[3][64][64];
+    private MoveList[] quietsSearched = new MoveList[MAX_PLY + 1];
+
+    // The legal moves of the root position, reordered after each iteration so
+    // the best move found comes first, followed by the moves whose subtrees
+    // took the most nodes to search, since they're the likeliest to turn out
+    // best at the next depth.
+    private MoveList rootMoves = new MoveList();
+    private long[] rootNodeCounts = new long[rootMoves.moves.length];
+
+    // How much the soft time limit is scaled by, indexed by the number of
+    // iterations in a row the best move has stayed the same.
+    private static final double[] STABILITY_TIME_SCALES = {2.0, 1.5, 1.2, 1.0, 0.9, 0.8, 0.7};
+
+    // Null move pruning: if the side to move could pass and a reduced search
+    // still fails high, the node is assumed to fail high. The reduction grows
+    // with depth, and from NMP_VERIFICATION_DEPTH on a cutoff is only trusted
+    // once a reduced search without null moves confirms it, which guards
+    // against zugzwang in the deep searches where a wrong cutoff costs most.
+    private static final int NMP_MIN_DEPTH          = 3;
+    private static final int NMP_BASE_REDUCTION     = 3;
+    private static final int NMP_DEPTH_DIVISOR      = 6;
+    private static final int NMP_VERIFICATION_DEPTH = 12;
+    private boolean[] nullMovePlayed = new boolean[MAX_PLY + 1];
+    private int nmpMinPly;
+
+    // Late move reductions: quiet moves late in the move order rarely turn out
+    // best, so they're searched to a reduced depth first, growing with the log
+    // of both the depth and the number of moves searched, and only searched
+    // to full depth if they beat alpha anyway.
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int LMR_MIN_MOVES = 3;
+    private static final int[][] LMR_REDUCTIONS = new int[MAX_PLY + 1][256];
+
+    static
     {
-        public int[] moves;
-
-        public PVLine() 
-        {
-            moves = new int[MAX_PV_LENGTH];
-        }
-
-        public int getBestMove() {
-            return moves[0];
-        }
-
-        public void clear() 
+        for (int depth = 1; depth <= MAX_PLY; depth++)
         {
-            moves = new int[MAX_PV_LENGTH];
+            for (int moveNum = 1; moveNum < 256; moveNum++)
+                LMR_REDUCTIONS[depth][moveNum] = (int)(0.75 + Math.log(depth) * Math.log(moveNum) / 2.25);
         }
+    }
 
-        public void updatePV(int bestMove, PVLine childPV)
-        {
-            moves[0] = bestMove;
-            System.arraycopy(childPV.moves, 0, moves, 1, childPV.moves.length - 1);
-        }
+    // How far a capture in quiescence search is allowed to fall short of
+    // alpha before delta pruning skips it. The captured piece is valued with
+    // the classical evaluation's own tapered material values, so with that
+    // evaluation the margin only has to cover positional terms. The network
+    // scores in centipawns too (see NNUE.SCALE), but its idea of material
+    // isn't known, so its margin is deliberately twice as wide.
+    private static final int DELTA_MARGIN      = 200;
+    private static final int NNUE_DELTA_MARGIN = 400;
 
-        public String toString() 
-        {
-            StringBuilder pv = new StringBuilder();
-            for (int i = 0; i < MAX_PV_LENGTH; i++)
-            {
-                int move = moves[i];
-                if (move == Move.NULL_MOVE)
-                    break;
-                pv.append(Move.toString(move));
-                pv.append(" ");
-            }
+    // Late move pruning: near the leaves, quiet moves past a number that
+    // grows with depth aren't searched at all.
+    private static final int LMP_MAX_DEPTH = 3;
 
-            return pv.toString();
-        }
-    }
+    // From this depth on, each iteration starts with a narrow window around
+    // the score of the last one, widened whenever the score falls outside it.
+    private static final int ASPIRATION_MIN_DEPTH = 4;
+    private static final int ASPIRATION_WINDOW    = 25;
 
     public Search() 
     {
         pos = new Position(Position.START_FEN);
         timer = new Timer();
+        tt = new TransTable(TransTable.DEFAULT_SIZE_MB);
+        evalCache = new EvalCache();
+        threadID = 0;
+        initMovePickers();
     }
 
     public Search(String fen) 
     {
         pos = new Position(fen);
         timer = new Timer();
+        tt = new TransTable(TransTable.DEFAULT_SIZE_MB);
+        evalCache = new EvalCache();
+        threadID = 0;
+        initMovePickers();
+    }
+
+    private Search(Search mainSearch, int threadID)
+    {
+        this.pos = mainSearch.pos.copy();
+        this.timer = mainSearch.timer;
+        this.tt = mainSearch.tt;
+        this.evalCache = mainSearch.evalCache;
+        this.threadID = threadID;
+        initMovePickers();
+    }
+
+    private void initMovePickers()
+    {
+        for (int ply = 0; ply <= MAX_PLY; ply++)
+        {
+            movePickers[ply] = new MovePicker(history);
+            quietsSearched[ply] = new MoveList();
+        }
+    }
+
+    public void setThreads(int numThreads)
+    {
+        numThreads = Math.max(1, Math.min(MAX_THREADS, numThreads));
+        helpers = new Search[numThreads - 1];
+
+        for (int i = 0; i < helpers.length; i++)
+            helpers[i] = new Search(this, i + 1);
     }
 
     @Override
@@ -84,59 +165,363 @@ public class Search implements Runnable
         timer.forceStop();
     }
 
+    // Search the position until the timer stops the search or the timer's
+    // depth limit is reached, and report the best move. The timer must
+    // already have been started by the caller, so that a stop requested
+    // while the search thread is still starting up isn't lost.
     public void search() 
     {
-        PVLine pv = new PVLine();
         int bestMove = Move.NULL_MOVE;
+        int ponderMove = Move.NULL_MOVE;
         long totalTime = 0L;
         totalNodes = 0L;
+        currSearchNodeCnt = 0L;
+        qNodeCnt = 0L;
+
+        for (int[] plyKillers : killers)
+            Arrays.fill(plyKillers, Move.NULL_MOVE);
 
-        timer.start();
+        for (int[][] sideHistory : history)
+            for (int[] fromHistory : sideHistory)
+                Arrays.fill(fromHistory, 0);
 
-        for (int depth = 1; depth <= MAX_PLY && depth <= timer.maxDepth; depth++)
+        pawnTable.resetStats();
+        evalCacheHits = evalCacheMisses = 0L;
+        nmpMinPly = 0;
+
+        MoveGen.genAllMoves(pos, rootMoves);
+        orderRootHashMoveFirst();
+        int prevScore = 0;
+
+        boolean isMainThread = threadID == 0;
+        Thread[] helperThreads = new Thread[helpers.length];
+
+        if (isMainThread)
         {
-            pv.clear();
-            currSearchNodeCnt = 0L;
+            tt.newSearch();
 
-            // Put timer logic here to get best move if we run out of time.
+            for (int i = 0; i < helpers.length; i++)
+            {
+                helpers[i].pos = pos.copy();
+                helpers[i].totalNodes = 0L;
+                helpers[i].currSearchNodeCnt = 0L;
+                helpers[i].qNodeCnt = 0L;
+                helperThreads[i] = new Thread(helpers[i]);
+                helperThreads[i].start();
+            }
+        }
+
+        // With only one legal move there's nothing to think about, so a timed
+        // search plays it straight away.
+        boolean onlyMove = isMainThread && rootMoves.count == 1 && timer.isTimeLimited();
+        if (onlyMove)
+            bestMove = rootMoves.moves[0];
 
-            long startTime = System.currentTimeMillis();
-            int score = negamax(pos, depth, 0, -INFINITY, INFINITY, pv);
-            long endTime = System.currentTimeMillis();
+        int bestMoveStability = 0;
+
+        // Odd numbered helpers start one ply deeper than everyone else, so the
+        // threads are spread across two depths at any given time.
+        for (int depth = 1 + (threadID & 1); !onlyMove && depth <= MAX_PLY && depth <= timer.maxDepth; depth++)
+        {
+            long startTime = System.nanoTime();
+            int score = aspirationSearch(depth, prevScore);
+            long iterationTime = System.nanoTime() - startTime;
 
             if (timer.isStopped())
             {
-                if (bestMove == Move.NULL_MOVE && depth == 1)
-                    bestMove = pv.getBestMove();
+                if (bestMove == Move.NULL_MOVE && rootMoves.count > 0)
+                    bestMove = rootMoves.moves[0];
                 break;
             }
 
-            totalTime += (endTime - startTime) + 1;
-            bestMove = pv.getBestMove();
+            int scoreSwing = Math.abs(score - prevScore);
+
+            // The principal variation table isn't cleared between searches, so
+            // it's only read when this iteration actually put a move in it.
+            // Otherwise, as at a root with no legal moves, the last iteration's
+            // move is kept.
+            if (pvLength[0] > 0)
+            {
+                bestMoveStability = Move.equals(pvTable[0][0], bestMove) ? bestMoveStability + 1 : 0;
+                bestMove = pvTable[0][0];
+                ponderMove = pvLength[0] > 1 ? pvTable[0][1] : Move.NULL_MOVE;
+            }
 
-            long nps = (totalNodes * 1000) / totalTime;
+            totalTime += iterationTime / 1_000_000 + 1;
+            prevScore = score;
+            sortRootMoves(bestMove);
             totalNodes += currSearchNodeCnt;
+            currSearchNodeCnt = 0L;
+
+            if (!isMainThread)
+                continue;
+
+            long nodes = getNodeCount();
+            long nps = (nodes * 1000) / totalTime;
 
             System.out.printf(
                 "info depth %d score %s nodes %d nps %d time %d pv %s\n",
-                depth, getMateOrCPScore(score), totalNodes, nps, totalTime, pv
+                depth, getMateOrCPScore(score), nodes, nps, totalTime, getPVString()
             );
+
+            if (timer.shouldStopIterating(softTimeScale(bestMoveStability, scoreSwing), iterationTime))
+                break;
+        }
+
+        if (!isMainThread)
+            return;
+
+        // A search that runs out of depth while pondering can't report its
+        // move until the GUI has ended the ponder.
+        timer.waitWhilePondering();
+
+        timer.forceStop();
+        for (Thread helperThread : helperThreads)
+        {
+            try 
+            {
+                helperThread.join();
+            } 
+            catch (InterruptedException e) 
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // The pawn table isn't used when evaluating with the network.
+        if (pos.accumulator == null)
+            System.out.printf("info string pawn table hit rate %.1f%%\n", getPawnTableHitRate());
+        System.out.printf("info string eval cache hit rate %.1f%%\n", getEvalCacheHitRate());
+
+        long nodes = getNodeCount(), qNodes = getQNodeCount();
+        System.out.printf("info string qnodes %d (%.1f%% of nodes)\n", qNodes, nodes == 0 ? 0.0 : (100.0 * qNodes) / nodes);
+
+        if (ponderMove == Move.NULL_MOVE && bestMove != Move.NULL_MOVE)
+            ponderMove = getPonderMoveFromTT(bestMove);
+
+        if (bestMove == Move.NULL_MOVE)
+            System.out.println("bestmove 0000");
+        else if (ponderMove == Move.NULL_MOVE)
+            System.out.println("bestmove " + Move.toString(bestMove));
+        else
+            System.out.println("bestmove " + Move.toString(bestMove) + " ponder " + Move.toString(ponderMove));
+    }
+
+    // The reply expected to the best move, for the GUI to ponder on, taken
+    // from the hash table when the principal variation stops short of it.
+    private int getPonderMoveFromTT(int bestMove)
+    {
+        pos.makeMove(bestMove);
+
+        int ponderMove = Move.NULL_MOVE;
+        long ttEntry = tt.probe(pos.hash);
+
+        if (ttEntry != TransTable.NO_ENTRY && MoveGen.isLegal(pos, TransTable.getMove(ttEntry)))
+            ponderMove = TransTable.getMove(ttEntry);
+
+        pos.unmakeMove(bestMove);
+        return ponderMove;
+    }
+
+    // Take longer over a move while the best move keeps changing or the score
+    // swings between iterations, and less once both have settled down.
+    private static double softTimeScale(int bestMoveStability, int scoreSwing)
+    {
+        double stabilityScale = STABILITY_TIME_SCALES[Math.min(bestMoveStability, STABILITY_TIME_SCALES.length - 1)];
+        double swingScale = 1.0 + Math.min(scoreSwing, 100) / 100.0;
+        return stabilityScale * swingScale;
+    }
+
+    // The nodes searched so far by the main search and all of its helpers. The
+    // helpers' counters are read without synchronization, which is fine for
+    // the purpose of reporting.
+    public long getNodeCount()
+    {
+        long nodes = totalNodes + currSearchNodeCnt;
+        for (Search helper : helpers)
+            nodes += helper.totalNodes + helper.currSearchNodeCnt;
+        return nodes;
+    }
+
+    public long getQNodeCount()
+    {
+        long qNodes = qNodeCnt;
+        for (Search helper : helpers)
+            qNodes += helper.qNodeCnt;
+        return qNodes;
+    }
+
+    // The percentage of pawn table probes made during the last search, by
+    // every thread, that found their entry.
+    public double getPawnTableHitRate()
+    {
+        long probes = pawnTable.getProbes(), hits = pawnTable.getHits();
+        for (Search helper : helpers)
+        {
+            probes += helper.pawnTable.getProbes();
+            hits += helper.pawnTable.getHits();
+        }
+
+        return probes == 0 ? 0.0 : (100.0 * hits) / probes;
+    }
+
+    public double getEvalCacheHitRate()
+    {
+        long hits = evalCacheHits, misses = evalCacheMisses;
+        for (Search helper : helpers)
+        {
+            hits += helper.evalCacheHits;
+            misses += helper.evalCacheMisses;
+        }
+
+        return hits + misses == 0 ? 0.0 : (100.0 * hits) / (hits + misses);
+    }
+
+    // The static evaluation of the position, from the evaluation cache if
+    // it's been seen before.
+    private int evaluate(Position pos)
+    {
+        int score = evalCache.probe(pos.hash);
+        if (score != EvalCache.NO_SCORE)
+        {
+            evalCacheHits++;
+            return score;
+        }
+
+        // Nothing stops a network's output from reaching the range of mate
+        // scores, or overflowing the cache's 16 bit entries, so it's clamped
+        // to just short of mate.
+        evalCacheMisses++;
+        score = Math.max(-CHECKMATE_THRESHOLD, Math.min(CHECKMATE_THRESHOLD, Evaluation.evaluate(pos, pawnTable)));
+        evalCache.store(pos.hash, score);
+        return score;
+    }
+
+    private int aspirationSearch(int depth, int prevScore)
+    {
+        if (depth < ASPIRATION_MIN_DEPTH)
+            return searchRoot(pos, depth, -INFINITY, INFINITY);
+
+        int delta = ASPIRATION_WINDOW;
+        int alpha = Math.max(prevScore - delta, -INFINITY);
+        int beta = Math.min(prevScore + delta, INFINITY);
+
+        while (true)
+        {
+            int score = searchRoot(pos, depth, alpha, beta);
+            if (timer.isStopped())
+                return score;
+
+            if (score <= alpha && alpha > -INFINITY)
+                alpha = Math.max(alpha - delta, -INFINITY);
+            else if (score >= beta && beta < INFINITY)
+                beta = Math.min(beta + delta, INFINITY);
+            else
+                return score;
+
+            delta *= 2;
+        }
+    }
+
+    // Search the root moves in the order left by the last iteration, counting
+    // the nodes each one's subtree takes.
+    private int searchRoot(Position pos, int depth, int alpha, int beta)
+    {
+        currSearchNodeCnt++;
+        pvLength[0] = 0;
+
+        if (rootMoves.count == 0)
+        {
+            byte kingSq = Bitboard.findMSBPos(pos.pieces[Position.KING] & pos.sides[pos.stm]);
+            return MoveGen.sqIsAttacked(pos, pos.stm, kingSq) ? -INFINITY : 0;
+        }
+
+        int bestScore = -INFINITY;
+        int bestMove = Move.NULL_MOVE;
+        int origAlpha = alpha;
+
+        MoveList quiets = quietsSearched[0];
+        quiets.clear();
+
+        for (int i = 0; i < rootMoves.count; i++)
+        {
+            int move = rootMoves.moves[i];
+            long nodesBefore = currSearchNodeCnt;
+
+            pos.makeMove(move);
+            int score = searchChild(pos, depth, 0, alpha, beta, i == 0, 0);
+            pos.unmakeMove(move);
+
+            rootNodeCounts[i] = currSearchNodeCnt - nodesBefore;
+
+            if (timer.isStopped())
+                return 0;
+
+            if (score > bestScore)
+            {
+                bestScore = score;
+                bestMove = move;
+            }
+
+            boolean isQuiet = !MovePicker.isTactical(move);
+
+            if (bestScore >= beta)
+            {
+                if (isQuiet)
+                {
+                    storeKiller(move, 0);
+                    updateHistory(pos.stm, move, quiets, depth);
+                }
+                break;
+            }
+
+            if (isQuiet)
+                quiets.addMove(move);
+
+            if (bestScore > alpha)
+            {
+                alpha = bestScore;
+                updatePV(move, 0);
+            }
         }
 
-        System.out.println("bestmove " + Move.toString(bestMove));
+        storeInTT(pos.hash, bestMove, bestScore, depth, 0, origAlpha, beta);
+        return bestScore;
+    }
+
+    // Principal variation search: only the first move is searched with the
+    // full window. The rest are searched with a zero window around alpha,
+    // which is enough to prove they're no better, and only searched again
+    // with the full window if that proof fails. A reduced move that beats
+    // alpha is first searched again to full depth with the zero window.
+    private int searchChild(Position pos, int depth, int ply, int alpha, int beta, boolean isFirstMove, int reduction)
+    {
+        if (isFirstMove)
+            return -negamax(pos, depth - 1, ply + 1, -beta, -alpha);
+
+        int score = -negamax(pos, depth - 1 - reduction, ply + 1, -alpha - 1, -alpha);
+        if (score > alpha && reduction > 0)
+            score = -negamax(pos, depth - 1, ply + 1, -alpha - 1, -alpha);
+        if (score > alpha && score < beta)
+            score = -negamax(pos, depth - 1, ply + 1, -beta, -alpha);
+        return score;
     }
 
-    public int negamax(Position pos, int depth, int ply, int alpha, int beta, PVLine pv)
+    public int negamax(Position pos, int depth, int ply, int alpha, int beta)
     {
         currSearchNodeCnt++;
+        pvLength[ply] = 0;
 
         if (ply == MAX_PLY) 
-            return Evaluation.evaluate(pos);
+            return evaluate(pos);
+
+        if (pos.isDraw())
+            return 0;
 
         if (depth == 0)
         {
             currSearchNodeCnt--;
-            return quiescenceSearch(pos, alpha, beta, pv);
+            return quiescenceSearch(pos, ply, alpha, beta);
         }
 
         if (totalNodes + currSearchNodeCnt >= timer.maxNodeCount)
@@ -148,56 +533,152 @@ public class Search implements Runnable
         if (timer.isStopped())
             return 0;
 
+        boolean isPVNode = beta - alpha > 1;
+        int hashMove = Move.NULL_MOVE;
+        long ttEntry = tt.probe(pos.hash);
+
+        if (ttEntry != TransTable.NO_ENTRY)
+        {
+            hashMove = TransTable.getMove(ttEntry);
+            int ttScore = scoreFromTT(TransTable.getScore(ttEntry), ply);
+
+            // Cutting off at a PV node would leave the principal variation
+            // (and the ponder move) truncated at this point.
+            if (!isPVNode && ply > 0 && TransTable.getDepth(ttEntry) >= depth && 
+                ttCutoff(TransTable.getBound(ttEntry), ttScore, alpha, beta))
+            {
+                return ttScore;
+            }
+        }
+
         byte kingSq = Bitboard.findMSBPos(pos.pieces[Position.KING] & pos.sides[pos.stm]);
         boolean inCheck = MoveGen.sqIsAttacked(pos, pos.stm, kingSq);
 
-        MoveList moves = MoveGen.genAllMoves(pos);
+        // The root is searched by searchRoot, so this is never the root. Two
+        // null moves in a row would just hand the move back, and a side with
+        // only pawns left is too likely to be in zugzwang for passing to be a
+        // safe guess at its best move.
+        if (!isPVNode && !inCheck && depth >= NMP_MIN_DEPTH && ply >= nmpMinPly &&
+            !nullMovePlayed[ply - 1] && hasNonPawnMaterial(pos) && evaluate(pos) >= beta)
+        {
+            int reduction = NMP_BASE_REDUCTION + depth / NMP_DEPTH_DIVISOR;
+            int reducedDepth = Math.max(0, depth - 1 - reduction);
+
+            pos.makeNullMove();
+            nullMovePlayed[ply] = true;
+            int score = -negamax(pos, reducedDepth, ply + 1, -beta, -beta + 1);
+            nullMovePlayed[ply] = false;
+            pos.unmakeNullMove();
+
+            if (timer.isStopped())
+                return 0;
+
+            if (score >= beta)
+            {
+                // Passing can't prove a mate.
+                if (score > CHECKMATE_THRESHOLD)
+                    score = beta;
+
+                if (nmpMinPly != 0 || depth < NMP_VERIFICATION_DEPTH)
+                    return score;
+
+                // Null moves are turned off for the first few plies of the
+                // verification search, so it can't just repeat the null move.
+                nmpMinPly = ply + 3 * reducedDepth / 4;
+                int verifiedScore = negamax(pos, reducedDepth, ply, beta - 1, beta);
+                nmpMinPly = 0;
+
+                if (verifiedScore >= beta)
+                    return score;
+            }
+        }
+
+        MovePicker movePicker = movePickers[ply];
+        movePicker.init(pos, hashMove, killers[ply][0], killers[ply][1]);
 
-        PVLine childPV = new PVLine();
         int bestScore = -INFINITY;
+        int bestMove = Move.NULL_MOVE;
+        int origAlpha = alpha;
         int numLegalMoves = 0;
+        int move;
 
-        scoreMoves(pos, moves.moves, moves.count);
+        MoveList quiets = quietsSearched[ply];
+        quiets.clear();
 
-        for (int i = 0; i < moves.count; i++)
+        while ((move = movePicker.nextMove()) != Move.NULL_MOVE)
         {
+            boolean isQuiet = !MovePicker.isTactical(move);
 
-            swapBestMoveToIdx(moves.moves, moves.count, i);
-
-            int move = moves.moves[i];
-            Position newPos = pos.copy();
-
-            if (!newPos.makeMove(move, inCheck, kingSq))
+            if (isQuiet && !isPVNode && !inCheck && depth <= LMP_MAX_DEPTH &&
+                numLegalMoves >= 3 + depth * depth && bestScore > -CHECKMATE_THRESHOLD)
+            {
                 continue;
+            }
 
+            pos.makeMove(move);
             numLegalMoves++;
 
-            int score = -negamax(newPos, depth - 1, ply + 1, -beta, -alpha, childPV);
+            int reduction = 0;
+            if (isQuiet && !inCheck && depth >= LMR_MIN_DEPTH && numLegalMoves > LMR_MIN_MOVES && !givesCheck(pos))
+            {
+                reduction = LMR_REDUCTIONS[depth][Math.min(numLegalMoves, 255)];
+                if (isPVNode)
+                    reduction--;
+                if (Move.equals(move, killers[ply][0]) || Move.equals(move, killers[ply][1]))
+                    reduction--;
+                reduction = Math.max(0, Math.min(reduction, depth - 2));
+            }
+
+            int score = searchChild(pos, depth, ply, alpha, beta, numLegalMoves == 1, reduction);
+            pos.unmakeMove(move);
             
             if (score > bestScore)
+            {
                 bestScore = score;
+                bestMove = move;
+            }
 
             if (bestScore >= beta)
+            {
+                if (isQuiet)
+                {
+                    storeKiller(move, ply);
+                    updateHistory(pos.stm, move, quiets, depth);
+                }
                 break;
+            }
+
+            if (isQuiet)
+                quiets.addMove(move);
 
             if (bestScore > alpha)
             {
                 alpha = bestScore;
-                pv.updatePV(move, childPV);
+                updatePV(move, ply);
             }
-
-            childPV.clear();
         }
 
-        if (inCheck && numLegalMoves == 0)
-            return -INFINITY + ply;
+        if (numLegalMoves == 0)
+            return inCheck ? -INFINITY + ply : 0;
+
+        if (!timer.isStopped())
+            storeInTT(pos.hash, bestMove, bestScore, depth, ply, origAlpha, beta);
 
         return bestScore;
     }
 
-    public int quiescenceSearch(Position pos, int alpha, int beta, PVLine pv)
+    // Search only the moves that change the material balance until the
+    // position is quiet, so the static evaluation is never taken in the middle
+    // of an exchange. The side to move may stand pat on the static evaluation,
+    // except when in check, where every evasion is searched instead.
+    public int quiescenceSearch(Position pos, int ply, int alpha, int beta)
     {
         currSearchNodeCnt++;
+        qNodeCnt++;
+        pvLength[ply] = 0;
+
+        if (ply == MAX_PLY)
+            return evaluate(pos);
 
         if (totalNodes + currSearchNodeCnt >= timer.maxNodeCount)
             timer.forceStop();
@@ -208,41 +689,68 @@ public class Search implements Runnable
         if (timer.isStopped())
             return 0;
 
-        int bestScore = Evaluation.evaluate(pos);
+        int hashMove = Move.NULL_MOVE;
+        long ttEntry = tt.probe(pos.hash);
 
-        if (bestScore >= beta)
-            return bestScore;
+        if (ttEntry != TransTable.NO_ENTRY)
+        {
+            hashMove = TransTable.getMove(ttEntry);
+            int ttScore = scoreFromTT(TransTable.getScore(ttEntry), ply);
 
-        if (alpha < bestScore)
-            alpha = bestScore;
+            if (ttCutoff(TransTable.getBound(ttEntry), ttScore, alpha, beta))
+                return ttScore;
+        }
 
         byte kingSq = Bitboard.findMSBPos(pos.pieces[Position.KING] & pos.sides[pos.stm]);
         boolean inCheck = MoveGen.sqIsAttacked(pos, pos.stm, kingSq);
 
-        MoveList moves = MoveGen.genAllMoves(pos);
-        PVLine childPV = new PVLine();
+        int bestScore = -INFINITY;
+        int standPat = -INFINITY;
+        int origAlpha = alpha;
 
-        scoreMoves(pos, moves.moves, moves.count);
+        MovePicker movePicker = movePickers[ply];
 
-        for (int i = 0; i < moves.count; i++)
+        if (inCheck)
+            movePicker.init(pos, hashMove, killers[ply][0], killers[ply][1]);
+        else
         {
-            swapBestMoveToIdx(moves.moves, moves.count, i);
+            standPat = bestScore = evaluate(pos);
+            if (bestScore >= beta)
+                return bestScore;
+
+            if (alpha < bestScore)
+                alpha = bestScore;
 
-            int move = moves.moves[i];
-            byte moveType = Move.getMoveType(move);
+            movePicker.initForQuiescence(pos, hashMove);
+        }
 
-            if (moveType != Move.ATTACK)
-                continue; 
+        int bestMove = Move.NULL_MOVE;
+        int numLegalMoves = 0;
+        int deltaMargin = pos.accumulator == null ? DELTA_MARGIN : NNUE_DELTA_MARGIN;
+        int move;
 
-            Position newPos = pos.copy();
+        while ((move = movePicker.nextMove()) != Move.NULL_MOVE)
+        {
+            numLegalMoves++;
 
-            if (!newPos.makeMove(move, inCheck, kingSq))
+            // Delta pruning: skip captures that couldn't raise alpha even if
+            // the piece were won for free and the position then improved by a
+            // safety margin.
+            if (!inCheck && Move.getMoveType(move) == Move.ATTACK &&
+                standPat + capturedValue(pos, move) + deltaMargin <= alpha)
+            {
                 continue;
+            }
 
-            int score = -quiescenceSearch(newPos, -alpha, -beta, childPV);
+            pos.makeMove(move);
+            int score = -quiescenceSearch(pos, ply + 1, -beta, -alpha);
+            pos.unmakeMove(move);
             
             if (score > bestScore)
+            {
                 bestScore = score;
+                bestMove = move;
+            }
 
             if (bestScore >= beta)
                 break;
@@ -250,51 +758,182 @@ public class Search implements Runnable
             if (bestScore > alpha)
             {
                 alpha = bestScore;
-                pv.updatePV(move, childPV);
+                updatePV(move, ply);
             }
-
-            childPV.clear();
         }
 
+        if (inCheck && numLegalMoves == 0)
+            return -INFINITY + ply;
+
+        if (!timer.isStopped())
+            storeInTT(pos.hash, bestMove, bestScore, 0, ply, origAlpha, beta);
+
         return bestScore;
     }
 
-    private void scoreMoves(Position pos, int[] moves, int numMoves)
+    private void orderRootHashMoveFirst()
     {
-        for (int i = 0; i < numMoves; i++)
+        long ttEntry = tt.probe(pos.hash);
+        if (ttEntry == TransTable.NO_ENTRY)
+            return;
+
+        int hashMove = TransTable.getMove(ttEntry);
+        int[] moves = rootMoves.moves;
+
+        for (int i = 1; i < rootMoves.count; i++)
         {
-            int move = moves[i];
-            
-            if (Move.getMoveType(moves[i]) == Move.ATTACK)
+            if (Move.equals(moves[i], hashMove))
             {
-                int from = Move.getFromSq(move), to = Move.getToSq(move);
-                byte attackerType = pos.getPieceType(from), attackedType = pos.getPieceType(to);
-                moves[i] = Move.addScore(move, MVV_LVA[attackerType][attackedType]);
+                int first = moves[0];
+                moves[0] = moves[i];
+                moves[i] = first;
+                return;
             }
         }
     }
 
-    private void swapBestMoveToIdx(int[] moves, int numMoves, int index)
+    // Put the best move first and the rest in order of how many nodes their
+    // subtrees took.
+    private void sortRootMoves(int bestMove)
     {
-        int bestMoveScore = Move.getScore(moves[index]);
-        int bestMoveIndex = index;
+        int[] moves = rootMoves.moves;
+        for (int i = 0; i < rootMoves.count; i++)
+        {
+            if (Move.equals(moves[i], bestMove))
+                rootNodeCounts[i] = Long.MAX_VALUE;
+        }
 
-        for (int i = index; i < numMoves; i++)
+        for (int i = 1; i < rootMoves.count; i++)
         {
-            int moveScore = Move.getScore(moves[i]);
-            if (moveScore > bestMoveScore) 
+            int move = moves[i];
+            long nodes = rootNodeCounts[i];
+            int j = i - 1;
+
+            while (j >= 0 && rootNodeCounts[j] < nodes)
             {
-                bestMoveScore = moveScore;
-                bestMoveIndex = i;
+                moves[j + 1] = moves[j];
+                rootNodeCounts[j + 1] = rootNodeCounts[j];
+                j--;
             }
+
+            moves[j + 1] = move;
+            rootNodeCounts[j + 1] = nodes;
+        }
+    }
+
+    // Whether the move just made on the position checks the side now to move.
+    private static boolean givesCheck(Position pos)
+    {
+        byte kingSq = Bitboard.findMSBPos(pos.pieces[Position.KING] & pos.sides[pos.stm]);
+        return MoveGen.sqIsAttacked(pos, pos.stm, kingSq);
+    }
+
+    // The value of the piece a capture takes, tapered by game phase the same
+    // way the classical evaluation's material is.
+    private static int capturedValue(Position pos, int move)
+    {
+        byte capturedType = Move.getFlag(move) == Move.ATTACK_EP ? Position.PAWN : pos.getPieceType(Move.getToSq(move));
+        int phase = Math.min(pos.phase, Evaluation.TOTAL_PHASE);
+
+        return (Evaluation.MG_PIECE_VALUES[capturedType] * phase +
+                Evaluation.EG_PIECE_VALUES[capturedType] * (Evaluation.TOTAL_PHASE - phase)) / Evaluation.TOTAL_PHASE;
+    }
+
+    private static boolean hasNonPawnMaterial(Position pos)
+    {
+        return (pos.sides[pos.stm] & ~(pos.pieces[Position.PAWN] | pos.pieces[Position.KING])) != 0;
+    }
+
+    private void storeKiller(int move, int ply)
+    {
+        if (!Move.equals(move, killers[ply][0]))
+        {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+    }
+
+    // Reward the quiet move that caused a beta cutoff, and penalize the quiet
+    // moves searched before it. Each update is scaled down as a score nears
+    // MAX_HISTORY_SCORE, so the scores stay bounded and recent cutoffs count
+    // for more than old ones.
+    private void updateHistory(byte stm, int cutoffMove, MoveList quiets, int depth)
+    {
+        int bonus = Math.min(depth * depth, 400);
+        addHistoryBonus(stm, cutoffMove, bonus);
+
+        for (int i = 0; i < quiets.count; i++)
+            addHistoryBonus(stm, quiets.moves[i], -bonus);
+    }
+
+    private void addHistoryBonus(byte stm, int move, int bonus)
+    {
+        int[] toHistory = history[stm][Move.getFromSq(move)];
+        byte to = Move.getToSq(move);
+        toHistory[to] += bonus - toHistory[to] * Math.abs(bonus) / MAX_HISTORY_SCORE;
+    }
+
+    // Make the given move followed by the principal variation found from the
+    // next ply the principal variation of the current ply.
+    private void updatePV(int move, int ply)
+    {
+        int childLength = pvLength[ply + 1];
+        pvTable[ply][0] = move;
+        System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, childLength);
+        pvLength[ply] = childLength + 1;
+    }
+
+    private String getPVString()
+    {
+        StringBuilder pv = new StringBuilder();
+        for (int i = 0; i < pvLength[0]; i++)
+        {
+            pv.append(Move.toString(pvTable[0][i]));
+            pv.append(" ");
         }
 
-        if (bestMoveIndex != index)
+        return pv.toString();
+    }
+
+    private void storeInTT(long hash, int bestMove, int bestScore, int depth, int ply, int alpha, int beta)
+    {
+        byte bound = TransTable.EXACT_BOUND;
+        if (bestScore >= beta)
+            bound = TransTable.LOWER_BOUND;
+        else if (bestScore <= alpha)
         {
-            int bestMove = moves[bestMoveIndex];
-            moves[bestMoveIndex] = moves[index];
-            moves[index] = bestMove;
+            bound = TransTable.UPPER_BOUND;
+            bestMove = Move.NULL_MOVE;
         }
+
+        tt.store(hash, bestMove, scoreToTT(bestScore, ply), depth, bound);
+    }
+
+    private boolean ttCutoff(byte bound, int ttScore, int alpha, int beta)
+    {
+        return bound == TransTable.EXACT_BOUND ||
+               (bound == TransTable.LOWER_BOUND && ttScore >= beta) ||
+               (bound == TransTable.UPPER_BOUND && ttScore <= alpha);
+    }
+
+    // Mate scores are stored relative to the node they're found at rather than
+    // the root, so they stay correct when the position is reached at a different ply.
+    private int scoreToTT(int score, int ply)
+    {
+        if (score > CHECKMATE_THRESHOLD)
+            return score + ply;
+        if (score < -CHECKMATE_THRESHOLD)
+            return score - ply;
+        return score;
+    }
+
+    private int scoreFromTT(int score, int ply)
+    {
+        if (score > CHECKMATE_THRESHOLD)
+            return score - ply;
+        if (score < -CHECKMATE_THRESHOLD)
+            return score + ply;
+        return score;
     }
 
     // Display the correct format for the search score if it's a centipawn score
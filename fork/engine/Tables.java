@@ -51,6 +51,11 @@ public class Tables {
 
     public static final long[][] RAYS;
     public static final long[][] RAYS_BETWEEN;
+    public static final long[][] LINES;
+
+    public static final long[]   ADJACENT_FILES;
+    public static final long[][] PASSED_PAWN_MASKS;
+    public static final long[][] PAWN_SUPPORT_MASKS;
 
     public static final byte RANK_1 = 0, FILE_A = 0;
     public static final byte RANK_2 = 1, FILE_B = 1;
@@ -90,6 +95,11 @@ public class Tables {
 
         RAYS         = new long[8][64];
         RAYS_BETWEEN = new long[64][64];
+        LINES        = new long[64][64];
+
+        ADJACENT_FILES     = new long[8];
+        PASSED_PAWN_MASKS  = new long[3][64];
+        PAWN_SUPPORT_MASKS = new long[3][64];
 
         for (int i = 0; i < 8; i++) 
         {
@@ -231,13 +241,66 @@ public class Tables {
             for (byte direction = NORTH_DIR; direction <= SOUTH_WEST_DIR; direction++) 
             {
                 long ray = RAYS[direction][sq1];
-                for (int sq2 = 0; sq2 < 64; sq2++) 
+                long raySquares = ray;
+
+                while (raySquares != 0) 
+                {
+                    byte sq2 = Bitboard.findMSBPos(raySquares);
+                    raySquares = Bitboard.clearBit(raySquares, sq2);
+                    RAYS_BETWEEN[sq1][sq2] = ray & ~(RAYS[direction][sq2] | (Bitboard.MSB >>> sq2));
+                }
+            }
+        }
+
+        // The full line running through two squares, if they share one.
+        byte[] oppositeDir = {
+            SOUTH_DIR, NORTH_DIR, WEST_DIR, EAST_DIR, 
+            SOUTH_WEST_DIR, SOUTH_EAST_DIR, NORTH_WEST_DIR, NORTH_EAST_DIR
+        };
+
+        for (int sq1 = 0; sq1 < 64; sq1++) 
+        {
+            for (byte direction = NORTH_DIR; direction <= SOUTH_WEST_DIR; direction++) 
+            {
+                long line = RAYS[direction][sq1] | RAYS[oppositeDir[direction]][sq1] | (Bitboard.MSB >>> sq1);
+                long ray = RAYS[direction][sq1];
+
+                while (ray != 0) 
                 {
-                    long sqBB = Bitboard.MSB >>> sq2;
-                    if ((ray & sqBB) != 0)
-                        RAYS_BETWEEN[sq1][sq2] = ray & ~(RAYS[direction][sq2] | sqBB);
+                    byte sq2 = Bitboard.findMSBPos(ray);
+                    ray = Bitboard.clearBit(ray, sq2);
+                    LINES[sq1][sq2] = line;
                 }
             }
         }
+
+        for (int file = 0; file < 8; file++)
+        {
+            ADJACENT_FILES[file] = (file > FILE_A ? MASK_FILE[file - 1] : 0L) |
+                                   (file < FILE_H ? MASK_FILE[file + 1] : 0L);
+        }
+
+        // The squares in front of a pawn on its own and the adjacent files,
+        // which must be free of enemy pawns for it to be passed, and the
+        // squares on the adjacent files level with or behind it, where a
+        // friendly pawn could still support it as it advances.
+        for (int sq = 0; sq < 64; sq++)
+        {
+            int file = Square.fileOf((byte)sq), rank = Square.rankOf((byte)sq);
+            long files = MASK_FILE[file] | ADJACENT_FILES[file];
+
+            for (int r = 0; r < 8; r++)
+            {
+                if (r > rank)
+                    PASSED_PAWN_MASKS[Position.WHITE][sq] |= files & MASK_RANK[r];
+                else
+                    PAWN_SUPPORT_MASKS[Position.WHITE][sq] |= ADJACENT_FILES[file] & MASK_RANK[r];
+
+                if (r < rank)
+                    PASSED_PAWN_MASKS[Position.BLACK][sq] |= files & MASK_RANK[r];
+                else
+                    PAWN_SUPPORT_MASKS[Position.BLACK][sq] |= ADJACENT_FILES[file] & MASK_RANK[r];
+            }
+        }
     }
 }
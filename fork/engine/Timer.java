@@ -1,20 +1,49 @@
 package fork.engine;
 
+// Decides how long a search may run. A timed search gets two limits: a hard
+// limit the search is stopped at no matter what, checked every few thousand
+// nodes, and a shorter soft limit, checked between iterations, which the
+// search scales up while it's unsure of its best move and down once it's
+// settled. An iteration isn't started at all if it's unlikely to finish
+// before the hard limit.
 public class Timer 
 {
     public static final int NO_VALUE      = 0;
     public static final int INFINITE_TIME = -1;
 
+    // The time set aside on every move for the communication delay between
+    // the engine and the GUI, which the engine's own clock doesn't see.
+    public static final int DEFAULT_MOVE_OVERHEAD = 30;
+    public static final int MAX_MOVE_OVERHEAD     = 5000;
+
+    private static final long NANOS_PER_MS = 1_000_000L;
+    private static final int DEFAULT_MOVES_TO_GO = 40;
+
+    // An iteration is assumed to take at most this many times as long as
+    // the one before it.
+    private static final int ITERATION_TIME_GROWTH = 2;
+
     public long timeLeft;
     public long increment;
     public long moveTime;
     public long maxNodeCount;
     public int maxDepth;
     public int movesToGo;
-    public long timeForMove;
+    public long moveOverhead = DEFAULT_MOVE_OVERHEAD;
+
+    // Shared by every thread of a multi-threaded search, so a stop
+    // requested by one of them is seen by all of them.
+    private volatile boolean stopped;
 
-    private boolean stopped;
-    private long stopTime;
+    // While pondering, the search runs on the opponent's time, so no limit
+    // applies until the GUI reports a ponderhit, which is when our own clock
+    // starts.
+    private volatile boolean pondering;
+
+    private boolean timeLimited;
+    private long startTime;
+    private long softLimit;
+    private long hardLimit;
 
     public void setup(
         long timeLift, long increment, long moveTime,
@@ -32,40 +61,93 @@ public class Timer
     public void start()
     {
         stopped = false;
+        startTime = System.nanoTime();
+        timeLimited = true;
 
         if (moveTime != NO_VALUE) 
         {
-            stopTime = System.currentTimeMillis() + moveTime;
-            timeLeft = NO_VALUE;
+            hardLimit = Math.max(1, moveTime - moveOverhead) * NANOS_PER_MS;
             return;
         }
 
         if (timeLeft == INFINITE_TIME)
+        {
+            timeLimited = false;
             return;
+        }
+
+        long available = Math.max(1, timeLeft - moveOverhead);
+        long soft = available / (movesToGo != NO_VALUE ? movesToGo : DEFAULT_MOVES_TO_GO) + (3 * increment) / 4;
+        long hard = Math.min(4 * soft, (3 * available) / 4);
+
+        softLimit = Math.max(1, Math.min(soft, hard)) * NANOS_PER_MS;
+        hardLimit = Math.max(1, hard) * NANOS_PER_MS;
+    }
+
+    public boolean isTimeLimited()
+    {
+        return timeLimited && !pondering;
+    }
+
+    public void setPondering(boolean pondering)
+    {
+        this.pondering = pondering;
+    }
 
+    public boolean isPondering()
+    {
+        return pondering;
+    }
+
+    // Switch a pondering search over to its normal limits, measured from now.
+    public void ponderHit()
+    {
+        if (!pondering)
+            return;
 
-        timeForMove = movesToGo != NO_VALUE ? timeLeft / movesToGo : timeLeft / 40;
-        timeForMove += (3 * increment) / 4;
+        startTime = System.nanoTime();
+        pondering = false;
+    }
 
-        if (timeForMove >= timeLeft)
+    // Block until the GUI ends pondering with a ponderhit or a stop.
+    public void waitWhilePondering()
+    {
+        while (pondering && !stopped)
         {
-            timeForMove = timeLeft - 150;
-            if (timeForMove <= 0)
-                timeForMove = 100;
+            try
+            {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
-
-        stopTime = System.currentTimeMillis() + timeForMove;
     }
 
     public void checkIfTimeIsUp()
     {
-        if (stopped || timeLeft == INFINITE_TIME)
+        if (stopped || !timeLimited || pondering)
             return;
 
-        if (System.currentTimeMillis() >= stopTime)
+        if (System.nanoTime() - startTime >= hardLimit)
             stopped = true;
     }
 
+    // Whether the search should stop after an iteration that took the given
+    // time, with the soft limit scaled by the given factor. A fixed move time
+    // is always used in full.
+    public boolean shouldStopIterating(double softLimitScale, long lastIterationTime)
+    {
+        if (!timeLimited || pondering || moveTime != NO_VALUE)
+            return false;
+
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed >= softLimit * softLimitScale ||
+               elapsed + ITERATION_TIME_GROWTH * lastIterationTime >= hardLimit;
+    }
+
     public void forceStop() 
     { 
         stopped = true;
@@ -75,4 +157,4 @@ public class Timer
     { 
         return stopped; 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,158 @@
+package fork.engine;
+
+import java.util.Arrays;
+
+// A fixed-size, bucketed transposition table. Each entry is a 64-bit key and a
+// 64-bit packed data word, laid out as parallel primitive arrays so probing a
+// bucket touches as few cache lines as possible.
+//
+// The table is shared by every search thread without any locking. Instead the
+// key slot holds the hash XOR'd with the data word, so an entry torn by two
+// threads writing it at once fails verification and is treated as a miss. The
+// data word is laid out as follows:
+//
+//   bits 0-15  : best move (the upper 16 bits of a move int)
+//   bits 16-31 : score
+//   bits 32-39 : depth
+//   bits 40-41 : bound type
+//   bits 42-47 : age of the search that stored the entry
+public class TransTable
+{
+    public static final byte EXACT_BOUND = 1;
+    public static final byte LOWER_BOUND = 2;
+    public static final byte UPPER_BOUND = 3;
+
+    public static final long NO_ENTRY = 0L;
+
+    public static final int DEFAULT_SIZE_MB = 64;
+    public static final int MIN_SIZE_MB     = 1;
+    public static final int MAX_SIZE_MB     = 4096;
+
+    private static final int BUCKET_SIZE = 4;
+    private static final int ENTRY_SIZE  = 16;
+    private static final int AGE_MASK    = 0x3f;
+
+    private long[] keys;
+    private long[] entries;
+    private long bucketMask;
+    private int age;
+
+    public TransTable(int sizeInMB)
+    {
+        resize(sizeInMB);
+    }
+
+    public void resize(int sizeInMB)
+    {
+        sizeInMB = Math.max(MIN_SIZE_MB, Math.min(MAX_SIZE_MB, sizeInMB));
+        long numBuckets = Long.highestOneBit(((long)sizeInMB * 1024 * 1024) / (ENTRY_SIZE * BUCKET_SIZE));
+
+        // Drop the old tables first so the garbage collector can reclaim
+        // them before the new ones are allocated.
+        keys = null;
+        entries = null;
+
+        keys = new long[(int)numBuckets * BUCKET_SIZE];
+        entries = new long[(int)numBuckets * BUCKET_SIZE];
+        bucketMask = numBuckets - 1;
+        age = 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(entries, 0L);
+        age = 0;
+    }
+
+    // Called once at the start of every search, so entries left over from
+    // earlier searches are the first to be replaced.
+    public void newSearch()
+    {
+        age = (age + 1) & AGE_MASK;
+    }
+
+    public long probe(long hash)
+    {
+        int index = (int)(hash & bucketMask) * BUCKET_SIZE;
+
+        for (int i = index; i < index + BUCKET_SIZE; i++)
+        {
+            long entry = entries[i];
+            if ((keys[i] ^ entry) == hash)
+                return entry;
+        }
+
+        return NO_ENTRY;
+    }
+
+    public void store(long hash, int move, int score, int depth, byte bound)
+    {
+        int index = (int)(hash & bucketMask) * BUCKET_SIZE;
+        int replaceIndex = index;
+        int lowestWorth = Integer.MAX_VALUE;
+
+        for (int i = index; i < index + BUCKET_SIZE; i++)
+        {
+            long entry = entries[i];
+
+            if ((keys[i] ^ entry) == hash)
+            {
+                // A shallower bound from this same search (a quiescence
+                // store, say) tells us less than what's already here.
+                if (bound != EXACT_BOUND && getAge(entry) == age && getDepth(entry) > depth)
+                    return;
+
+                // Keep the old best move around if we don't have a new one.
+                if (move == Move.NULL_MOVE)
+                    move = getMove(entry);
+                replaceIndex = i;
+                break;
+            }
+
+            // Prefer replacing stale entries first, and then shallow ones.
+            int staleness = (age - getAge(entry)) & AGE_MASK;
+            int worth = getDepth(entry) - 8 * staleness;
+
+            if (worth < lowestWorth)
+            {
+                lowestWorth = worth;
+                replaceIndex = i;
+            }
+        }
+
+        long entry = ((long)(move >>> 16) & 0xffff)    |
+                     ((long)score & 0xffff) << 16      |
+                     ((long)depth & 0xff) << 32        |
+                     ((long)bound & 0x3) << 40         |
+                     ((long)age & AGE_MASK) << 42;
+
+        keys[replaceIndex] = hash ^ entry;
+        entries[replaceIndex] = entry;
+    }
+
+    public static int getMove(long entry)
+    {
+        return (int)(entry & 0xffff) << 16;
+    }
+
+    public static int getScore(long entry)
+    {
+        return (short)((entry >>> 16) & 0xffff);
+    }
+
+    public static int getDepth(long entry)
+    {
+        return (int)((entry >>> 32) & 0xff);
+    }
+
+    public static byte getBound(long entry)
+    {
+        return (byte)((entry >>> 40) & 0x3);
+    }
+
+    private static int getAge(long entry)
+    {
+        return (int)((entry >>> 42) & AGE_MASK);
+    }
+}
@@ -1,5 +1,6 @@
 package fork.engine;
 
+import java.io.IOException;
 import java.util.*;
 
 public class UCI 
@@ -10,15 +11,40 @@ public class UCI
 
 
     private Search search;
+    private Thread searchThread;
+    private int numThreads = 1;
+    private int perftHashSizeInMB = 0;
 
     public UCI() 
     {
         search = new Search();
     }
 
+    // Stop the running search, if there is one, and wait for it to finish
+    // reporting its move, so nothing touches the position or the timer while
+    // the search thread is still using them.
+    private void stopSearch()
+    {
+        if (searchThread == null)
+            return;
+
+        search.stopSearch();
+        try
+        {
+            searchThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        searchThread = null;
+    }
+
     private void reset() 
     {
-        search = new Search();
+        search.pos.loadFEN(Position.START_FEN);
+        search.tt.clear();
+        search.evalCache.clear();
     }
 
     private String trimPrefix(String str, String prefix) 
@@ -44,12 +70,86 @@ public class UCI
         System.out.print("\n\t* wtime <MILLISECONDS>\n\t* btime <MILLISECONDS>");
         System.out.print("\n\t* winc <MILLISECONDS>\n\t* binc <MILLISECONDS>");
         System.out.print("\n\t* movestogo <INTEGER>\n\t* depth <INTEGER>\n\t* nodes <INTEGER>\n\t* movetime <MILLISECONDS>");
-        System.out.print("\n\t* infinite");
+        System.out.print("\n\t* infinite\n\t* ponder");
+        System.out.print("\n\t* perft <DEPTH>");
     
-        System.out.print("\n    * stop\n    * quit\n\n");
+        System.out.print("\n    * setoption name <ID> value <X>");
+        System.out.print("\n    * bench <DEPTH>");
+        System.out.print("\n    * ponderhit\n    * stop\n    * quit\n\n");
+
+        System.out.printf(
+            "option name Hash type spin default %d min %d max %d\n",
+            TransTable.DEFAULT_SIZE_MB, TransTable.MIN_SIZE_MB, TransTable.MAX_SIZE_MB
+        );
+        System.out.printf("option name Threads type spin default 1 min 1 max %d\n", Search.MAX_THREADS);
+        System.out.printf("option name PerftHash type spin default 0 min 0 max %d\n", Perft.MAX_HASH_SIZE_MB);
+        System.out.printf("option name EvalFile type string default <empty>\n");
+        System.out.printf(
+            "option name Move Overhead type spin default %d min 0 max %d\n",
+            Timer.DEFAULT_MOVE_OVERHEAD, Timer.MAX_MOVE_OVERHEAD
+        );
+
+        // The GUI decides whether to ponder, and tells us by sending go ponder,
+        // so the option only has to be advertised.
+        System.out.printf("option name Ponder type check default false\n");
         System.out.printf("uciok\n\n");
     }
 
+    private void setOptionCommand(String command)
+    {
+        command = trimPrefix(command, "setoption name ");
+        String[] args = command.split(" value ");
+
+        if (args.length != 2)
+            return;
+
+        String name = args[0].trim();
+        String value = args[1].trim();
+
+        if (name.equalsIgnoreCase("Hash"))
+            search.tt.resize(Integer.parseInt(value));
+        else if (name.equalsIgnoreCase("Threads"))
+        {
+            numThreads = Integer.parseInt(value);
+            search.setThreads(numThreads);
+        }
+        else if (name.equalsIgnoreCase("PerftHash"))
+            perftHashSizeInMB = Integer.parseInt(value);
+        else if (name.equalsIgnoreCase("EvalFile"))
+            evalFileCommand(value);
+        else if (name.equalsIgnoreCase("Move Overhead"))
+            search.timer.moveOverhead = Math.max(0, Math.min(Timer.MAX_MOVE_OVERHEAD, Integer.parseInt(value)));
+    }
+
+    // Switch to the network in the given file, or back to the classical
+    // evaluation if no file is given or it can't be loaded.
+    private void evalFileCommand(String path)
+    {
+        // Scores cached from the old evaluation are no longer valid.
+        search.evalCache.clear();
+
+        if (path.isEmpty() || path.equals("<empty>"))
+        {
+            search.pos.setNetwork(null);
+            return;
+        }
+
+        try
+        {
+            NNUE network = NNUE.load(path);
+            search.pos.setNetwork(network);
+            System.out.printf(
+                "info string loaded network %s with %d hidden neurons (%s inference)\n",
+                path, network.hiddenSize, network.isVectorized() ? "vector" : "scalar"
+            );
+        }
+        catch (IOException e)
+        {
+            search.pos.setNetwork(null);
+            System.out.printf("info string failed to load network: %s\n", e.getMessage());
+        }
+    }
+
     private void positionCommand(String command)
     {
         command = trimPrefix(command, "position ");
@@ -77,13 +177,8 @@ public class UCI
                 command = command.trim();
                 for (String moveAsString : command.split("\\s")) {
                     int move = Move.moveFromCoord(search.pos, moveAsString);
-
-                    // We pass in false and Square.NO_SQ here because
-                    // we assume the moves given through this UCI command
-                    // are legal, so we're not going to waste time testing
-                    // them even if they put the king in check or are king
-                    // moves.
-                    search.pos.makeMove(move, false, Square.NO_SQ);
+                    search.pos.makeMove(move);
+                    search.pos.discardUnreachableHistory();
                 }
             }
         }
@@ -91,9 +186,17 @@ public class UCI
 
     public void goCommand(String command)
     {
+        stopSearch();
         command = trimPrefix(command, "go ");
         String[] args = command.split("\\s");
 
+        if (args[0].equals("perft"))
+        {
+            Perft perft = new Perft(numThreads, perftHashSizeInMB);
+            perft.divide(search.pos, Integer.parseInt(args[1]));
+            return;
+        }
+
         String colorPrefix = search.pos.stm == Position.WHITE ? "w" : "b";
 
         long timeLeft     = Timer.INFINITE_TIME; 
@@ -102,6 +205,7 @@ public class UCI
         long maxNodeCount = Long.MAX_VALUE;
         int movesToGo     = Timer.NO_VALUE;
         int maxDepth      = Search.MAX_PLY;
+        boolean ponder    = false;
 
         for (int i = 0; i < args.length; i++)
         {
@@ -122,14 +226,24 @@ public class UCI
                 maxNodeCount = Integer.parseInt(args[i + 1]);
             else if (arg.equals("movetime"))
                 moveTime = Integer.parseInt(args[i + 1]);
+            else if (arg.equals("ponder"))
+                ponder = true;
         }
 
         search.timer.setup(timeLeft, increment, moveTime, maxNodeCount, maxDepth, movesToGo);
+        search.timer.setPondering(ponder);
+        search.timer.start();
 
-        Thread thread = new Thread(search);
-        thread.start();
+        searchThread = new Thread(search);
+        searchThread.start();
     }
     
+    private void benchCommand(String command)
+    {
+        String[] args = command.trim().split("\\s+");
+        Bench.run(args.length > 1 ? Integer.parseInt(args[1]) : Bench.DEFAULT_DEPTH);
+    }
+
     public void loop() 
     {
         System.out.println("Author: " + ENGINE_AUTHOR);
@@ -153,16 +267,34 @@ public class UCI
             else if (command.equals("isready"))
                 System.out.println("readyok\n");
             else if (command.startsWith("ucinewgame"))
+            {
+                stopSearch();
                 reset();
+            }
+            else if (command.startsWith("setoption"))
+            {
+                stopSearch();
+                setOptionCommand(command);
+            }
             else if (command.startsWith("position"))
+            {
+                stopSearch();
                 positionCommand(command);
+            }
+            else if (command.startsWith("bench"))
+            {
+                stopSearch();
+                benchCommand(command);
+            }
             else if (command.startsWith("go"))
                 goCommand(command);
+            else if (command.equals("ponderhit"))
+                search.timer.ponderHit();
             else if (command.startsWith("stop"))
-                search.stopSearch();
+                stopSearch();
             else if (command.equals("quit"))
             {
-                search.stopSearch();
+                stopSearch();
                 break;
             }
         }
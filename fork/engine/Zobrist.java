@@ -0,0 +1,39 @@
+package fork.engine;
+
+public class Zobrist 
+{
+    public static final long[][][] PIECE_KEYS;
+    public static final long[] CASTLING_KEYS;
+    public static final long[] EP_KEYS;
+    public static final long SIDE_KEY;
+
+    private static final long ZOBRIST_SEED = 0x2a9f3c7d1b5e8046L;
+
+    static 
+    {
+        PIECE_KEYS    = new long[3][7][64];
+        CASTLING_KEYS = new long[16];
+        EP_KEYS       = new long[65];
+
+        PRNG prng = new PRNG(ZOBRIST_SEED);
+
+        for (byte color = Position.WHITE; color <= Position.BLACK; color++)
+        {
+            for (byte pieceType = Position.PAWN; pieceType <= Position.KING; pieceType++)
+            {
+                for (int sq = 0; sq < 64; sq++)
+                    PIECE_KEYS[color][pieceType][sq] = prng.randomLong();
+            }
+        }
+
+        for (int rights = 0; rights < 16; rights++)
+            CASTLING_KEYS[rights] = prng.randomLong();
+
+        // The last slot belongs to Square.NO_SQ and is left as zero, so
+        // hashing the en passant square never needs a branch.
+        for (int sq = 0; sq < 64; sq++)
+            EP_KEYS[sq] = prng.randomLong();
+
+        SIDE_KEY = prng.randomLong();
+    }
+}